@@ -0,0 +1,192 @@
+package core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * long-lived work-stealing executor for analysis
+ * splits a grid into tiles visited in Morton (Z-order)
+ *
+ * @author Wu
+ * @create 2021-04-16 14:05
+ */
+
+public class AnalysisExecutor {
+    /**
+     * tile edge in cells
+     */
+    public static final int TILE_SIZE = 8;
+
+    /**
+     * task on the cells [rowStart, rowEnd) x [colStart, colEnd)
+     */
+    public interface TileTask {
+        void run(int rowStart, int rowEnd, int colStart, int colEnd);
+    }
+
+    /**
+     * interleave the lower 16 bits of x and y
+     *
+     * @param x integer in [0, 65535]
+     * @param y integer in [0, 65535]
+     * @return Morton code
+     */
+    private static long morton(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static long spread(int v) {
+        long x = v & 0xffffL;
+        x = (x | (x << 8)) & 0x00ff00ffL;
+        x = (x | (x << 4)) & 0x0f0f0f0fL;
+        x = (x | (x << 2)) & 0x33333333L;
+        x = (x | (x << 1)) & 0x55555555L;
+        return x;
+    }
+
+    private ForkJoinPool pool;
+    private int parallelism;
+
+    public AnalysisExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public AnalysisExecutor(int parallelism) {
+        setParallelism(parallelism);
+    }
+
+    /**
+     * replace the worker pool, the running tasks finish in the former one
+     *
+     * @param parallelism number of worker threads
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        if (null != pool && this.parallelism == parallelism)
+            return;
+        if (null != pool)
+            pool.shutdown();
+        this.parallelism = parallelism;
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    public synchronized ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public synchronized void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * run a task on every tile of a row x col grid without waiting
+     *
+     * @param row  number of rows
+     * @param col  number of columns
+     * @param task task on a tile
+     * @return ForkJoinTask to join
+     */
+    public ForkJoinTask<?> submitTiles(int row, int col, TileTask task) {
+        return getPool().submit(createTileAction(row, col, task));
+    }
+
+    private static TileAction createTileAction(int row, int col, TileTask task) {
+        int tileRows = (row + TILE_SIZE - 1) / TILE_SIZE;
+        int tileCols = (col + TILE_SIZE - 1) / TILE_SIZE;
+        long[] keys = new long[tileRows * tileCols];
+        for (int i = 0; i < tileRows; i++)
+            for (int j = 0; j < tileCols; j++)
+                keys[i * tileCols + j] = (morton(j, i) << 32) | (i * tileCols + j);
+        Arrays.sort(keys);
+        int[] tiles = new int[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            tiles[i] = (int) keys[i];
+        return new TileAction(tiles, 0, tiles.length, tileCols, row, col, task);
+    }
+
+    /**
+     * run a task on every index in [0, n) and wait for all of them,
+     * each index being a coarse task such as the shadow of a building
+     *
+     * @param n    number of indices
+     * @param task task on an index
+     */
+    public void parallelFor(int n, IntConsumer task) {
+        if (n <= 0)
+            return;
+        getPool().invoke(new RangeAction(0, n, task));
+    }
+
+    /**
+     * split the index range in halves until a single index
+     */
+    private static class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start, end;
+        private final IntConsumer task;
+
+        RangeAction(int start, int end, IntConsumer task) {
+            this.start = start;
+            this.end = end;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new RangeAction(start, mid, task), new RangeAction(mid, end, task));
+                return;
+            }
+            task.accept(start);
+        }
+    }
+
+    /**
+     * split the Morton-ordered tiles in halves until a single tile,
+     * idle workers steal the other halves
+     */
+    private static class TileAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] tiles;
+        private final int start, end;
+        private final int tileCols, row, col;
+        private final TileTask task;
+
+        TileAction(int[] tiles, int start, int end, int tileCols, int row, int col, TileTask task) {
+            this.tiles = tiles;
+            this.start = start;
+            this.end = end;
+            this.tileCols = tileCols;
+            this.row = row;
+            this.col = col;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new TileAction(tiles, start, mid, tileCols, row, col, task),
+                        new TileAction(tiles, mid, end, tileCols, row, col, task));
+                return;
+            }
+            for (int k = start; k < end; k++) {
+                int i = tiles[k] / tileCols;
+                int j = tiles[k] % tileCols;
+                task.run(i * TILE_SIZE, Math.min((i + 1) * TILE_SIZE, row),
+                        j * TILE_SIZE, Math.min((j + 1) * TILE_SIZE, col));
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package core;
+
+import wblut.geom.WB_Point;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * handle of a grid analysis running on the scene executor
+ * cancellation, progress and partial results
+ *
+ * @author Wu
+ * @create 2021-04-19 10:12
+ */
+
+public class AnalysisJob {
+    /**
+     * called from the worker threads whenever a tile is done
+     */
+    public interface ProgressListener {
+        void onProgress(AnalysisJob job);
+    }
+
+    private final WB_Point leftBottom, rightTop;
+    private final int row, col;
+    private final GridResult result;
+    private final ShadowRaster raster;
+    private final boolean[] rasterRowDone;
+    private final int total;
+    private final AtomicInteger done;
+    private final ProgressListener listener;
+    private final long startTime;
+    private volatile long endTime;
+    private volatile boolean cancelled = false;
+    private volatile ForkJoinTask<?> task;
+
+    AnalysisJob(GridResult result, ProgressListener listener) {
+        this.leftBottom = result.getLeftBottom();
+        this.rightTop = result.getRightTop();
+        this.row = result.getRow();
+        this.col = result.getCol();
+        this.result = result;
+        this.raster = null;
+        this.rasterRowDone = null;
+        this.total = row * col;
+        this.done = new AtomicInteger();
+        this.listener = listener;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    AnalysisJob(ShadowRaster raster, ProgressListener listener) {
+        this.leftBottom = raster.getLeftBottom();
+        this.rightTop = raster.getRightTop();
+        this.row = raster.getRow();
+        this.col = raster.getCol();
+        this.result = null;
+        this.raster = raster;
+        this.rasterRowDone = new boolean[row];
+        this.total = row * col;
+        this.done = new AtomicInteger();
+        this.listener = listener;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    void setTask(ForkJoinTask<?> task) {
+        this.task = task;
+    }
+
+    /**
+     * mark the rasterized rows readable, before advance
+     */
+    void setRasterRowsDone(int rowStart, int rowEnd) {
+        for (int i = rowStart; i < rowEnd; i++)
+            rasterRowDone[i] = true;
+    }
+
+    /**
+     * record finished cells and notify the listener
+     *
+     * @param cells number of finished cells
+     * @return true if this was the last tile
+     */
+    boolean advance(int cells) {
+        boolean last = done.addAndGet(cells) == total;
+        if (last)
+            endTime = System.currentTimeMillis();
+        if (null != listener)
+            listener.onProgress(this);
+        return last;
+    }
+
+    /**
+     * stop the job, the running tiles return at their next check
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return null != task && task.isDone();
+    }
+
+    /**
+     * wait for the job to finish
+     *
+     * @return true if every cell is done, false if cancelled
+     */
+    public boolean join() {
+        try {
+            task.join();
+        } catch (CancellationException e) {
+            return false;
+        }
+        return !cancelled && done.get() == total;
+    }
+
+    public WB_Point getLeftBottom() {
+        return leftBottom;
+    }
+
+    public WB_Point getRightTop() {
+        return rightTop;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    /**
+     * partial result while running, the cells not done yet are NaN
+     *
+     * @return GridResult, null for a raster job
+     */
+    public GridResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return ShadowRaster, null for a point job
+     */
+    public ShadowRaster getRaster() {
+        return raster;
+    }
+
+    /**
+     * duration of a cell of either kind of job
+     *
+     * @param i row
+     * @param j column
+     * @return double in HOURS, NaN if not done yet
+     */
+    public double getDuration(int i, int j) {
+        if (null != raster)
+            return rasterRowDone[i] ? raster.getDuration(i, j) : Double.NaN;
+        return result.getDuration(i, j);
+    }
+
+    public int getDone() {
+        return done.get();
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return double in [0, 1]
+     */
+    public double getProgress() {
+        return total == 0 ? 1 : (double) done.get() / total;
+    }
+
+    /**
+     * @return elapsed time in MILLISECONDS
+     */
+    public long getElapsed() {
+        long end = endTime;
+        return (end > 0 ? end : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * estimated time of arrival from the average speed so far
+     *
+     * @return remaining time in MILLISECONDS, -1 if unknown
+     */
+    public long getEta() {
+        int d = done.get();
+        if (d == 0)
+            return -1;
+        return getElapsed() * (total - d) / d;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AnalysisJob {%d/%d %.0f%% elapsed %.2fs ETA %.2fs%s}",
+                done.get(), total, getProgress() * 100, getElapsed() / 1e3,
+                Math.max(getEta(), 0) / 1e3, cancelled ? " cancelled" : "");
+    }
+}
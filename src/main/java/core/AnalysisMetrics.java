@@ -0,0 +1,101 @@
+package core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counters of the ray queries of an analysis, cumulative until reset
+ * updated once per sampling point or tile from the worker threads
+ *
+ * @author Wu
+ * @create 2021-04-25 10:40
+ */
+
+public class AnalysisMetrics {
+    private final LongAdder rays = new LongAdder();
+    private final LongAdder occludedRays = new LongAdder();
+    private final LongAdder pointCacheHits = new LongAdder();
+    private final LongAdder threadCacheHits = new LongAdder();
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder culledPackets = new LongAdder();
+    private final LongAdder nodeVisits = new LongAdder();
+
+    /**
+     * @param rays            rays cast
+     * @param occludedRays    rays hitting a triangle
+     * @param pointCacheHits  occluded rays resolved by the last occluder of the point
+     * @param threadCacheHits occluded rays resolved by the last occluder of the thread at the step
+     */
+    void add(long rays, long occludedRays, long pointCacheHits, long threadCacheHits) {
+        this.rays.add(rays);
+        this.occludedRays.add(occludedRays);
+        this.pointCacheHits.add(pointCacheHits);
+        this.threadCacheHits.add(threadCacheHits);
+    }
+
+    /**
+     * @param packets       packets of a tile, one per step
+     * @param culledPackets packets with every building culled, not traced
+     * @param nodeVisits    BVH nodes visited by the packets
+     */
+    void addPackets(long packets, long culledPackets, long nodeVisits) {
+        this.packets.add(packets);
+        this.culledPackets.add(culledPackets);
+        this.nodeVisits.add(nodeVisits);
+    }
+
+    public void reset() {
+        rays.reset();
+        occludedRays.reset();
+        pointCacheHits.reset();
+        threadCacheHits.reset();
+        packets.reset();
+        culledPackets.reset();
+        nodeVisits.reset();
+    }
+
+    public long getRays() {
+        return rays.sum();
+    }
+
+    public long getOccludedRays() {
+        return occludedRays.sum();
+    }
+
+    public long getPointCacheHits() {
+        return pointCacheHits.sum();
+    }
+
+    public long getThreadCacheHits() {
+        return threadCacheHits.sum();
+    }
+
+    public long getPackets() {
+        return packets.sum();
+    }
+
+    public long getCulledPackets() {
+        return culledPackets.sum();
+    }
+
+    public long getNodeVisits() {
+        return nodeVisits.sum();
+    }
+
+    /**
+     * occluded rays resolved without a traversal
+     *
+     * @return double in [0, 1]
+     */
+    public double getCacheHitRate() {
+        long occluded = getOccludedRays();
+        return occluded == 0 ? 0 : (double) (getPointCacheHits() + getThreadCacheHits()) / occluded;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AnalysisMetrics {%d rays, %d occluded, cache hits %d point + %d thread (%.1f%%)," +
+                        " %d packets, %d culled, %d node visits}",
+                getRays(), getOccludedRays(), getPointCacheHits(), getThreadCacheHits(),
+                getCacheHitRate() * 100, getPackets(), getCulledPackets(), getNodeVisits());
+    }
+}
@@ -0,0 +1,271 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * exact shadowed time of a point under prism buildings, solved in the hour angle
+ * without time sampling
+ * the sun shadows the point while the segment from the point toward the sun
+ * up to the top height crosses a footprint edge,
+ * and every condition of a crossing is linear in the direction to the sun,
+ * so of the form A + B cos(w) + C sin(w) >= 0 in the hour angle w
+ *
+ * @author Wu
+ * @create 2021-04-30 9:10
+ */
+
+public class AnalyticShadow {
+    private static final double EPSILON = 1e-12;
+
+    private final PrismStore prisms;
+    /**
+     * bounding circle of each footprint
+     */
+    private final double[] cx, cy, radius;
+
+    /**
+     * coefficients of the direction to the sun in the hour angle,
+     * set per sun path, dx = X1 sin(w), dy = Y0 + Y1 cos(w), dz = Z0 + Z1 cos(w)
+     */
+    private double x1, y0, y1, z0, z1;
+    private double w0, w1;
+
+    /**
+     * intervals of the hour angle as start, end pairs
+     */
+    private double[] shadow = new double[64];
+    private int shadowNum;
+    private final double[] bufferA = new double[8], bufferB = new double[8], bufferC = new double[8];
+
+    /**
+     * not thread-safe, one per thread
+     *
+     * @param prisms prism buildings
+     */
+    public AnalyticShadow(PrismStore prisms) {
+        this.prisms = prisms;
+        int n = prisms.size();
+        cx = new double[n];
+        cy = new double[n];
+        radius = new double[n];
+        for (int i = 0; i < n; i++) {
+            double minX = prisms.getBound(i, 0), minY = prisms.getBound(i, 1);
+            double maxX = prisms.getBound(i, 3), maxY = prisms.getBound(i, 4);
+            cx[i] = (minX + maxX) / 2;
+            cy[i] = (minY + maxY) / 2;
+            double r = 0;
+            for (int e = prisms.edgeStart[i]; e < prisms.edgeStart[i + 1]; e++) {
+                double dx = prisms.ax[e] - cx[i], dy = prisms.ay[e] - cy[i];
+                r = Math.max(r, dx * dx + dy * dy);
+            }
+            radius[i] = Math.sqrt(r);
+        }
+    }
+
+    /**
+     * sunlight duration from sunrise to sunset less the union of the shadowed intervals
+     *
+     * @param x       point x
+     * @param y       point y
+     * @param z       point z, not below the base of any prism
+     * @param sunPath sun path of the date
+     * @return double in HOURS
+     */
+    public double calDuration(double x, double y, double z, SunPath sunPath) {
+        if (!sunPath.hasPath())
+            return 0;
+        setSunPath(sunPath);
+        shadowNum = 0;
+        for (int i = 0; i < prisms.size(); i++) {
+            if (prisms.z0[i] > z)
+                throw new IllegalArgumentException(
+                        "Base of the prism " + i + " above the point: " + prisms.z0[i] + " > " + z);
+            double h = prisms.z1[i] - z;
+            if (h <= 0)
+                continue;
+            double ux = cx[i] - x, uy = cy[i] - y;
+            double d = Math.sqrt(ux * ux + uy * uy);
+            double r = radius[i];
+            if (d > r) {
+                if (!reaches(ux / d, uy / d, d, r, h))
+                    continue;
+            } else if (prisms.contains(i, x, y)) {
+                addShadow(w0, w1);
+                continue;
+            }
+            for (int e = prisms.edgeStart[i]; e < prisms.edgeStart[i + 1]; e++)
+                solveEdge(prisms.ax[e] - x, prisms.ay[e] - y, prisms.bx[e] - x, prisms.by[e] - y, h);
+        }
+        double shadowed = measure();
+        return Math.max(0, w1 - w0 - shadowed) * 12 / Math.PI;
+    }
+
+    /**
+     * direction to the sun in the hour angle, east, north, up
+     */
+    private void setSunPath(SunPath sunPath) {
+        double lat = sunPath.getLatitude(), delta = sunPath.getDeclination();
+        x1 = -Math.cos(delta);
+        y0 = Math.sin(delta) * Math.cos(lat);
+        y1 = -Math.cos(delta) * Math.sin(lat);
+        z0 = Math.sin(delta) * Math.sin(lat);
+        z1 = Math.cos(delta) * Math.cos(lat);
+        w0 = sunPath.getHourAngle(sunPath.getSunrise());
+        w1 = sunPath.getHourAngle(sunPath.getSunset());
+    }
+
+    /**
+     * bounding circle pruning, the sun within the tangents from the point
+     * and the segment toward it reaching the near side of the circle
+     */
+    private boolean reaches(double ux, double uy, double d, double r, double h) {
+        double sin = r / d, cos = Math.sqrt(1 - sin * sin);
+        // tangent directions, clockwise and counterclockwise from the center
+        double t1x = ux * cos + uy * sin, t1y = -ux * sin + uy * cos;
+        double t2x = ux * cos - uy * sin, t2y = ux * sin + uy * cos;
+        int n = solve(-t1y, t1x, 0, bufferA);
+        if (n == 0)
+            return false;
+        n = intersect(bufferA, n, bufferB, solve(t2y, -t2x, 0, bufferB), bufferC);
+        if (n == 0)
+            return false;
+        return intersect(bufferC, n, bufferA, solve(h * ux, h * uy, -(d - r), bufferA), bufferB) > 0;
+    }
+
+    /**
+     * times the segment toward the sun crosses an edge relative to the point:
+     * within the wedge of the edge and beyond its line
+     */
+    private void solveEdge(double ax, double ay, double bx, double by, double h) {
+        double s = ax * by - ay * bx;
+        // collinear with the point, crossed at an instant only
+        if (Math.abs(s) < EPSILON)
+            return;
+        double sign = Math.signum(s);
+        // line n . p = c with the point on the negative side
+        double nx = by - ay, ny = ax - bx;
+        double c = nx * ax + ny * ay;
+        if (c < 0) {
+            nx = -nx;
+            ny = -ny;
+            c = -c;
+        }
+        // cross(a, d) and cross(d, b) of the sign of cross(a, b)
+        int n = solve(-ay * sign, ax * sign, 0, bufferA);
+        if (n == 0)
+            return;
+        n = intersect(bufferA, n, bufferB, solve(by * sign, -bx * sign, 0, bufferB), bufferC);
+        if (n == 0)
+            return;
+        // h (n . d) / dz >= c
+        n = intersect(bufferC, n, bufferA, solve(h * nx, h * ny, -c, bufferA), bufferB);
+        for (int k = 0; k < n; k++)
+            addShadow(bufferB[k * 2], bufferB[k * 2 + 1]);
+    }
+
+    /**
+     * hour angles of the day where fx dx + fy dy + fz dz >= 0
+     *
+     * @param out start, end pairs in increasing order
+     * @return number of intervals
+     */
+    private int solve(double fx, double fy, double fz, double[] out) {
+        double a = fy * y0 + fz * z0;
+        double b = fy * y1 + fz * z1;
+        double c = fx * x1;
+        double r = Math.sqrt(b * b + c * c);
+        if (r < EPSILON) {
+            if (a < 0)
+                return 0;
+            out[0] = w0;
+            out[1] = w1;
+            return 1;
+        }
+        double cos = -a / r;
+        if (cos <= -1) {
+            out[0] = w0;
+            out[1] = w1;
+            return 1;
+        }
+        if (cos > 1)
+            return 0;
+        // a + r cos(w - psi) >= 0
+        double gamma = Math.acos(cos);
+        double psi = Math.atan2(c, b);
+        double period = Math.PI * 2;
+        int n = 0;
+        long kStart = (long) Math.ceil((w0 - psi - gamma) / period);
+        long kEnd = (long) Math.floor((w1 - psi + gamma) / period);
+        for (long k = kStart; k <= kEnd; k++) {
+            double s = Math.max(w0, psi - gamma + k * period);
+            double e = Math.min(w1, psi + gamma + k * period);
+            if (s < e) {
+                out[n * 2] = s;
+                out[n * 2 + 1] = e;
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * intersection of two sorted lists of disjoint intervals
+     */
+    private static int intersect(double[] a, int na, double[] b, int nb, double[] out) {
+        int n = 0;
+        int i = 0, j = 0;
+        while (i < na && j < nb) {
+            double s = Math.max(a[i * 2], b[j * 2]);
+            double e = Math.min(a[i * 2 + 1], b[j * 2 + 1]);
+            if (s < e) {
+                out[n * 2] = s;
+                out[n * 2 + 1] = e;
+                n++;
+            }
+            if (a[i * 2 + 1] < b[j * 2 + 1])
+                i++;
+            else
+                j++;
+        }
+        return n;
+    }
+
+    private void addShadow(double s, double e) {
+        if (shadowNum * 2 + 2 > shadow.length)
+            shadow = Arrays.copyOf(shadow, shadow.length * 2);
+        shadow[shadowNum * 2] = s;
+        shadow[shadowNum * 2 + 1] = e;
+        shadowNum++;
+    }
+
+    /**
+     * length of the union of the shadowed intervals
+     */
+    private double measure() {
+        if (shadowNum == 0)
+            return 0;
+        double[] starts = new double[shadowNum], ends = new double[shadowNum];
+        for (int k = 0; k < shadowNum; k++) {
+            starts[k] = shadow[k * 2];
+            ends[k] = shadow[k * 2 + 1];
+        }
+        Arrays.sort(starts);
+        Arrays.sort(ends);
+        // sweep the starts and ends, counting the open intervals
+        double length = 0, from = 0;
+        int open = 0;
+        int i = 0, j = 0;
+        while (j < shadowNum) {
+            if (i < shadowNum && starts[i] < ends[j]) {
+                if (open++ == 0)
+                    from = starts[i];
+                i++;
+            } else {
+                if (--open == 0)
+                    length += ends[j] - from;
+                j++;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,588 @@
+package core;
+
+import wblut.geom.WB_Vector;
+
+import java.util.ArrayList;
+
+/**
+ * bounding volume hierarchy over all building triangles in a scene
+ * built with the binned surface area heuristic (SAH)
+ * and flattened into primitive arrays for any-hit shadow queries
+ * the extruded buildings are kept as prisms and tested analytically
+ *
+ * @author Wu
+ * @create 2021-04-12 10:21
+ */
+
+public class BVH {
+    private static final int MAX_LEAF_SIZE = 4;
+    private static final int BIN_COUNT = 16;
+    private static final int MAX_DEPTH = 64;
+    /**
+     * relative cost of visiting a node against testing a triangle
+     */
+    private static final double TRAVERSAL_COST = 0.5;
+    /**
+     * traversal stack of each thread, reused across queries
+     */
+    private static final ThreadLocal<int[]> STACK = ThreadLocal.withInitial(() -> new int[MAX_DEPTH * 2]);
+
+    /**
+     * triangles and prisms in leaf order,
+     * a hit index below the triangle number is a triangle, otherwise a prism
+     */
+    private final TriangleStore tris;
+    private final PrismStore prisms;
+
+    /**
+     * nodes in depth-first order, the left child of an interior node is the next node
+     * 6 doubles per node: minX, minY, minZ, maxX, maxY, maxZ
+     */
+    private double[] nodeBounds;
+    /**
+     * leaf - index of the first triangle
+     * interior - index of the right child
+     */
+    private int[] nodeOffset;
+    /**
+     * leaf - number of triangles
+     * interior - -1
+     */
+    private int[] nodeCount;
+    /**
+     * leaf - index of the first prism and number of prisms
+     */
+    private int[] nodePrismOffset;
+    private int[] nodePrismCount;
+    private int nodeNum;
+    private int depth;
+
+    private final long buildTime; // in MILLISECONDS
+
+    public BVH(TriangleStore store) {
+        this(store, new PrismStore(new ArrayList<>()));
+    }
+
+    /**
+     * @param store       triangles
+     * @param prismStore  prisms of the extruded buildings
+     */
+    public BVH(TriangleStore store, PrismStore prismStore) {
+        long startTime = System.currentTimeMillis();
+        int triNum = store.size();
+        int n = triNum + prismStore.size();
+
+        // bounds and centroids of each primitive, the triangles first
+        double[] triBounds = new double[n * 6];
+        double[] centroids = new double[n * 3];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < 3; k++) {
+                double min, max;
+                if (i < triNum) {
+                    double c0 = store.getCoord(i, 0, k);
+                    double c1 = store.getCoord(i, 1, k);
+                    double c2 = store.getCoord(i, 2, k);
+                    min = Math.min(Math.min(c0, c1), c2);
+                    max = Math.max(Math.max(c0, c1), c2);
+                } else {
+                    min = prismStore.getBound(i - triNum, k);
+                    max = prismStore.getBound(i - triNum, k + 3);
+                }
+                triBounds[i * 6 + k] = min;
+                triBounds[i * 6 + k + 3] = max;
+                centroids[i * 3 + k] = (min + max) * 0.5;
+            }
+        }
+
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+
+        int maxNodes = Math.max(1, 2 * n - 1);
+        nodeBounds = new double[maxNodes * 6];
+        nodeOffset = new int[maxNodes];
+        nodeCount = new int[maxNodes];
+        nodeNum = 0;
+        if (n > 0)
+            buildNode(order, 0, n, triBounds, centroids, 1);
+        else
+            emptyRoot();
+        shrink();
+
+        // split the primitives of each leaf into triangles and prisms, in leaf order
+        nodePrismOffset = new int[nodeNum];
+        nodePrismCount = new int[nodeNum];
+        int[] triOrder = new int[triNum];
+        int[] prismOrder = new int[n - triNum];
+        int triCount = 0, prismCount = 0;
+        for (int node = 0; node < nodeNum; node++) {
+            if (nodeCount[node] < 0)
+                continue;
+            int start = nodeOffset[node], end = start + nodeCount[node];
+            nodeOffset[node] = triCount;
+            nodePrismOffset[node] = prismCount;
+            for (int i = start; i < end; i++) {
+                if (order[i] < triNum)
+                    triOrder[triCount++] = order[i];
+                else
+                    prismOrder[prismCount++] = order[i] - triNum;
+            }
+            nodeCount[node] = triCount - nodeOffset[node];
+            nodePrismCount[node] = prismCount - nodePrismOffset[node];
+        }
+        tris = store.permute(triOrder);
+        prisms = prismStore.permute(prismOrder);
+
+        buildTime = System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * recursively build a node over order[start, end)
+     *
+     * @return index of the node
+     */
+    private int buildNode(int[] order, int start, int end,
+                          double[] triBounds, double[] centroids, int level) {
+        int node = nodeNum++;
+        depth = Math.max(depth, level);
+
+        // node bounds and centroid bounds
+        double[] cMin = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] cMax = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int k = 0; k < 3; k++) {
+            nodeBounds[node * 6 + k] = Double.MAX_VALUE;
+            nodeBounds[node * 6 + k + 3] = -Double.MAX_VALUE;
+        }
+        for (int i = start; i < end; i++) {
+            int t = order[i];
+            for (int k = 0; k < 3; k++) {
+                nodeBounds[node * 6 + k] = Math.min(nodeBounds[node * 6 + k], triBounds[t * 6 + k]);
+                nodeBounds[node * 6 + k + 3] = Math.max(nodeBounds[node * 6 + k + 3], triBounds[t * 6 + k + 3]);
+                cMin[k] = Math.min(cMin[k], centroids[t * 3 + k]);
+                cMax[k] = Math.max(cMax[k], centroids[t * 3 + k]);
+            }
+        }
+
+        int count = end - start;
+        if (count <= MAX_LEAF_SIZE || level >= MAX_DEPTH) {
+            makeLeaf(node, start, count);
+            return node;
+        }
+
+        // binned SAH over all three axes
+        double leafCost = count;
+        double bestCost = Double.MAX_VALUE;
+        int bestAxis = -1;
+        int bestBin = -1;
+        int[] binCount = new int[BIN_COUNT];
+        double[] binBounds = new double[BIN_COUNT * 6];
+        double[] rightArea = new double[BIN_COUNT];
+        int[] rightCount = new int[BIN_COUNT];
+        double[] box = new double[6];
+
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = cMax[axis] - cMin[axis];
+            if (extent <= 0)
+                continue;
+            double scale = BIN_COUNT / extent;
+
+            for (int b = 0; b < BIN_COUNT; b++) {
+                binCount[b] = 0;
+                resetBox(binBounds, b * 6);
+            }
+            for (int i = start; i < end; i++) {
+                int t = order[i];
+                int b = binIndex(centroids[t * 3 + axis], cMin[axis], scale);
+                binCount[b]++;
+                growBox(binBounds, b * 6, triBounds, t * 6);
+            }
+
+            // sweep from the right
+            resetBox(box, 0);
+            int sum = 0;
+            for (int b = BIN_COUNT - 1; b > 0; b--) {
+                sum += binCount[b];
+                growBox(box, 0, binBounds, b * 6);
+                rightCount[b] = sum;
+                rightArea[b] = halfArea(box, 0);
+            }
+            // sweep from the left
+            resetBox(box, 0);
+            sum = 0;
+            for (int b = 0; b < BIN_COUNT - 1; b++) {
+                sum += binCount[b];
+                growBox(box, 0, binBounds, b * 6);
+                if (sum == 0 || rightCount[b + 1] == 0)
+                    continue;
+                double cost = halfArea(box, 0) * sum + rightArea[b + 1] * rightCount[b + 1];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestBin = b;
+                }
+            }
+        }
+
+        double nodeArea = halfArea(nodeBounds, node * 6);
+        if (bestAxis < 0 || (nodeArea > 0 &&
+                TRAVERSAL_COST + bestCost / nodeArea >= leafCost && count <= MAX_LEAF_SIZE * 4)) {
+            makeLeaf(node, start, count);
+            return node;
+        }
+
+        // partition order[start, end) around the best bin
+        double scale = BIN_COUNT / (cMax[bestAxis] - cMin[bestAxis]);
+        int mid = start;
+        for (int i = start; i < end; i++) {
+            int t = order[i];
+            if (binIndex(centroids[t * 3 + bestAxis], cMin[bestAxis], scale) <= bestBin) {
+                order[i] = order[mid];
+                order[mid] = t;
+                mid++;
+            }
+        }
+        if (mid == start || mid == end)
+            mid = start + count / 2;
+
+        nodeCount[node] = -1;
+        buildNode(order, start, mid, triBounds, centroids, level + 1);
+        nodeOffset[node] = buildNode(order, mid, end, triBounds, centroids, level + 1);
+        return node;
+    }
+
+    private void makeLeaf(int node, int start, int count) {
+        nodeOffset[node] = start;
+        nodeCount[node] = count;
+    }
+
+    private void emptyRoot() {
+        nodeNum = 1;
+        resetBox(nodeBounds, 0);
+        makeLeaf(0, 0, 0);
+    }
+
+    private void shrink() {
+        double[] b = new double[nodeNum * 6];
+        System.arraycopy(nodeBounds, 0, b, 0, b.length);
+        nodeBounds = b;
+        int[] o = new int[nodeNum];
+        System.arraycopy(nodeOffset, 0, o, 0, nodeNum);
+        nodeOffset = o;
+        int[] c = new int[nodeNum];
+        System.arraycopy(nodeCount, 0, c, 0, nodeNum);
+        nodeCount = c;
+    }
+
+    private static int binIndex(double c, double min, double scale) {
+        int b = (int) ((c - min) * scale);
+        return Math.min(Math.max(b, 0), BIN_COUNT - 1);
+    }
+
+    private static void resetBox(double[] box, int i) {
+        box[i] = box[i + 1] = box[i + 2] = Double.MAX_VALUE;
+        box[i + 3] = box[i + 4] = box[i + 5] = -Double.MAX_VALUE;
+    }
+
+    private static void growBox(double[] box, int i, double[] other, int j) {
+        for (int k = 0; k < 3; k++) {
+            box[i + k] = Math.min(box[i + k], other[j + k]);
+            box[i + k + 3] = Math.max(box[i + k + 3], other[j + k + 3]);
+        }
+    }
+
+    private static double halfArea(double[] box, int i) {
+        double dx = box[i + 3] - box[i];
+        double dy = box[i + 4] - box[i + 1];
+        double dz = box[i + 5] - box[i + 2];
+        if (dx < 0 || dy < 0 || dz < 0)
+            return 0;
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    /*===========================================================================*/
+
+    public int getTriangleNum() {
+        return tris.size();
+    }
+
+    public int getPrismNum() {
+        return prisms.size();
+    }
+
+    public int getNodeNum() {
+        return nodeNum;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * triangles in leaf order, indexed by the hits below getTriangleNum()
+     *
+     * @return TriangleStore
+     */
+    public TriangleStore getTriangles() {
+        return tris;
+    }
+
+    /**
+     * prisms in leaf order, indexed by the hits minus getTriangleNum()
+     *
+     * @return PrismStore
+     */
+    public PrismStore getPrisms() {
+        return prisms;
+    }
+
+    /**
+     * check if a ray hits a triangle or prism
+     *
+     * @param i index of the hit
+     * @return boolean
+     */
+    public boolean hits(int i, double ox, double oy, double oz,
+                        double dx, double dy, double dz) {
+        int triNum = tris.size();
+        if (i < triNum)
+            return tris.intersect(i, ox, oy, oz, dx, dy, dz) >= 0;
+        return prisms.intersect(i - triNum, ox, oy, oz, dx, dy, dz) >= 0;
+    }
+
+    /**
+     * normal of a triangle, or the outward normal of a prism at a point on it
+     *
+     * @param i index of the hit
+     * @return WB_Vector
+     */
+    public WB_Vector getNormal(int i, double x, double y, double z) {
+        int triNum = tris.size();
+        if (i < triNum)
+            return tris.getNormal(i);
+        return prisms.getNormal(i - triNum, x, y, z);
+    }
+
+    /**
+     * @param i index of the hit
+     * @return index of the building of the triangle or prism
+     */
+    public int getBuilding(int i) {
+        int triNum = tris.size();
+        if (i < triNum)
+            return tris.getBuilding(i);
+        return prisms.getBuilding(i - triNum);
+    }
+
+    /**
+     * memory held by the flattened arrays
+     *
+     * @return long in BYTES
+     */
+    public long getMemory() {
+        return tris.getMemory() + prisms.getMemory()
+                + (long) nodeBounds.length * 8 + (long) nodeNum * 4 * 4;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BVH {%d triangles, %d prisms, %d nodes, depth %d, built in %dms, %.2fMB}",
+                getTriangleNum(), getPrismNum(), nodeNum, depth, buildTime, getMemory() / 1048576.);
+    }
+
+    /**
+     * check if a ray hits any triangle
+     *
+     * @param ox origin x
+     * @param oy origin y
+     * @param oz origin z
+     * @param dx direction x
+     * @param dy direction y
+     * @param dz direction z
+     * @return boolean
+     */
+    public boolean occluded(double ox, double oy, double oz,
+                            double dx, double dy, double dz) {
+        return anyHit(ox, oy, oz, dx, dy, dz) >= 0;
+    }
+
+    /**
+     * any triangle hit by a ray, the first found in traversal order
+     *
+     * @param ox origin x
+     * @param oy origin y
+     * @param oz origin z
+     * @param dx direction x
+     * @param dy direction y
+     * @param dz direction z
+     * @return index of the triangle, -1 if missed
+     */
+    public int anyHit(double ox, double oy, double oz,
+                      double dx, double dy, double dz) {
+        int triNum = tris.size();
+        if (triNum + prisms.size() == 0)
+            return -1;
+        double ix = inverse(dx), iy = inverse(dy), iz = inverse(dz);
+        int[] stack = STACK.get();
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (!hitBox(node, ox, oy, oz, ix, iy, iz, Double.MAX_VALUE))
+                continue;
+            int count = nodeCount[node];
+            if (count >= 0) {
+                int first = nodeOffset[node];
+                for (int i = first; i < first + count; i++)
+                    if (tris.intersect(i, ox, oy, oz, dx, dy, dz) >= 0)
+                        return i;
+                first = nodePrismOffset[node];
+                for (int i = first; i < first + nodePrismCount[node]; i++)
+                    if (prisms.intersect(i, ox, oy, oz, dx, dy, dz) >= 0)
+                        return triNum + i;
+            } else {
+                stack[top++] = nodeOffset[node];
+                stack[top++] = node + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * any-hit test of all rays of a packet, marking the rays that hit,
+     * a node is visited once for the whole packet
+     *
+     * @param packet rays sharing a direction
+     * @return number of nodes visited
+     */
+    public int trace(RayPacket packet) {
+        if (tris.size() + prisms.size() == 0 || packet.isDone())
+            return 0;
+        double dx = packet.dx, dy = packet.dy, dz = packet.dz;
+        double ix = inverse(dx), iy = inverse(dy), iz = inverse(dz);
+        int n = packet.size();
+        int[] stack = STACK.get();
+        int top = 0;
+        int visits = 0;
+        stack[top++] = 0;
+        while (top > 0 && !packet.isDone()) {
+            int node = stack[--top];
+            visits++;
+            if (!packet.mayHit(nodeBounds, node * 6) || !hitBoxAny(node, packet, ix, iy, iz))
+                continue;
+            int count = nodeCount[node];
+            if (count >= 0) {
+                int first = nodeOffset[node];
+                for (int i = first; i < first + count; i++)
+                    for (int r = 0; r < n; r++)
+                        if (!packet.hit[r] && tris.intersect(i, packet.ox[r], packet.oy[r], packet.oz[r],
+                                dx, dy, dz) >= 0)
+                            packet.setHit(r);
+                first = nodePrismOffset[node];
+                for (int i = first; i < first + nodePrismCount[node]; i++)
+                    for (int r = 0; r < n; r++)
+                        if (!packet.hit[r] && prisms.intersect(i, packet.ox[r], packet.oy[r], packet.oz[r],
+                                dx, dy, dz) >= 0)
+                            packet.setHit(r);
+            } else {
+                stack[top++] = nodeOffset[node];
+                stack[top++] = node + 1;
+            }
+        }
+        return visits;
+    }
+
+    /**
+     * slab test of the rays not hit yet until one hits the node
+     */
+    private boolean hitBoxAny(int node, RayPacket packet, double ix, double iy, double iz) {
+        for (int r = 0; r < packet.size(); r++)
+            if (!packet.hit[r] && hitBox(node, packet.ox[r], packet.oy[r], packet.oz[r],
+                    ix, iy, iz, Double.MAX_VALUE))
+                return true;
+        return false;
+    }
+
+    /**
+     * nearest triangle hit by a ray
+     *
+     * @param ox origin x
+     * @param oy origin y
+     * @param oz origin z
+     * @param dx direction x
+     * @param dy direction y
+     * @param dz direction z
+     * @param t  double[1] to receive the ray parameter of the hit
+     * @return index of the triangle, -1 if missed
+     */
+    public int closestHit(double ox, double oy, double oz,
+                          double dx, double dy, double dz, double[] t) {
+        int hit = -1;
+        double tMax = Double.MAX_VALUE;
+        int triNum = tris.size();
+        if (triNum + prisms.size() == 0)
+            return hit;
+        double ix = inverse(dx), iy = inverse(dy), iz = inverse(dz);
+        int[] stack = STACK.get();
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (!hitBox(node, ox, oy, oz, ix, iy, iz, tMax))
+                continue;
+            int count = nodeCount[node];
+            if (count >= 0) {
+                int first = nodeOffset[node];
+                for (int i = first; i < first + count; i++) {
+                    double tempT = tris.intersect(i, ox, oy, oz, dx, dy, dz);
+                    if (tempT >= 0 && tempT < tMax) {
+                        tMax = tempT;
+                        hit = i;
+                    }
+                }
+                first = nodePrismOffset[node];
+                for (int i = first; i < first + nodePrismCount[node]; i++) {
+                    double tempT = prisms.intersect(i, ox, oy, oz, dx, dy, dz);
+                    if (tempT >= 0 && tempT < tMax) {
+                        tMax = tempT;
+                        hit = triNum + i;
+                    }
+                }
+            } else {
+                stack[top++] = nodeOffset[node];
+                stack[top++] = node + 1;
+            }
+        }
+        if (hit >= 0)
+            t[0] = tMax;
+        return hit;
+    }
+
+    private static double inverse(double d) {
+        return d != 0 ? 1 / d : Double.MAX_VALUE;
+    }
+
+    /**
+     * slab test of a ray against the bounds of a node
+     */
+    private boolean hitBox(int node, double ox, double oy, double oz,
+                           double ix, double iy, double iz, double tMax) {
+        int i = node * 6;
+        double t0 = (nodeBounds[i] - ox) * ix;
+        double t1 = (nodeBounds[i + 3] - ox) * ix;
+        double near = Math.min(t0, t1);
+        double far = Math.max(t0, t1);
+        t0 = (nodeBounds[i + 1] - oy) * iy;
+        t1 = (nodeBounds[i + 4] - oy) * iy;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+        t0 = (nodeBounds[i + 2] - oz) * iz;
+        t1 = (nodeBounds[i + 5] - oz) * iz;
+        near = Math.max(near, Math.min(t0, t1));
+        far = Math.min(far, Math.max(t0, t1));
+        return near <= far && far >= 0 && near <= tMax;
+    }
+}
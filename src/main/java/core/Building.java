@@ -24,7 +24,8 @@ public class Building {
     private final double height;
 
     private final List<PolyWithNormal> pns;
-    private List<WB_Triangle> tris;
+    private TriangleStore triangles;
+    private volatile Silhouette silhouette;
     private WB_AABB aabb;
 
     public Building(WB_Polygon base, double height) {
@@ -42,16 +43,18 @@ public class Building {
     public Building(HE_Mesh mesh) {
         this.base = null;
         this.height = 0;
-        init(mesh);
+        List<WB_Triangle> tris = init(mesh);
 
         pns = new ArrayList<>();
         for (WB_Triangle tri : tris)
             pns.add(new PolyWithNormal(tri));
     }
 
-    private void init(HE_Mesh mesh) {
-        this.tris = PolyHandler.mesh2tris(mesh);
+    private List<WB_Triangle> init(HE_Mesh mesh) {
+        List<WB_Triangle> tris = PolyHandler.mesh2tris(mesh);
+        triangles = new TriangleStore(tris, 0);
         aabb = new WB_AABB(mesh.getPoints().toList());
+        return tris;
     }
 
 
@@ -63,8 +66,39 @@ public class Building {
         return height;
     }
 
+    /**
+     * @return true if extruded from a base polygon
+     */
+    public boolean isPrism() {
+        return null != base;
+    }
+
+    /**
+     * triangles created on demand from the packed store
+     *
+     * @return List<WB_Triangle>
+     */
     public List<WB_Triangle> getTris() {
-        return tris;
+        return triangles.toTriangles();
+    }
+
+    public TriangleStore getTriangles() {
+        return triangles;
+    }
+
+    /**
+     * built on first use, the extruded buildings shadowed by volume never need it,
+     * racing threads build the same silhouette
+     *
+     * @return Silhouette
+     */
+    public Silhouette getSilhouette() {
+        Silhouette s = silhouette;
+        if (null == s) {
+            s = new Silhouette(triangles);
+            silhouette = s;
+        }
+        return s;
     }
 
     public WB_AABB getAABB() {
@@ -0,0 +1,136 @@
+package core;
+
+/**
+ * sunlight requirement of a code, e.g. at least 2 continuous hours
+ * between 08:00 and 16:00 on the Great Cold day
+ * the window is divided into equal slots, each lit or shadowed at its middle
+ *
+ * @author Wu
+ * @create 2021-05-06 9:30
+ */
+
+public class ComplianceCheck {
+    /**
+     * CONTINUOUS - the longest lit interval in the window at least the required hours
+     * CUMULATIVE - the lit time in the window at least the required hours
+     */
+    public enum Requirement {CONTINUOUS, CUMULATIVE}
+
+    private final int[] date;
+    private final double from, to;
+    private final double required;
+    private final Requirement requirement;
+    private double slotLength = 1;
+    private boolean solarTime = false;
+    private boolean earlyExit = true;
+
+    /**
+     * @param date        {month, day}
+     * @param from        start of the window in HOURS
+     * @param to          end of the window in HOURS
+     * @param required    required sunlight in HOURS
+     * @param requirement continuous or cumulative
+     */
+    public ComplianceCheck(int[] date, double from, double to, double required, Requirement requirement) {
+        if (date.length != 2)
+            throw new IllegalArgumentException("Date must be {month, day}: length " + date.length);
+        Sun.checkDate(date[0], date[1]);
+        if (!(from >= 0 && from < to && to <= 24))
+            throw new IllegalArgumentException("Window must be within [0, 24] and not empty: " + from + " - " + to);
+        if (!(required > 0 && required <= to - from))
+            throw new IllegalArgumentException("Required hours must be positive and within the window: " + required);
+        this.date = date.clone();
+        this.from = from;
+        this.to = to;
+        this.required = required;
+        this.requirement = requirement;
+    }
+
+    /**
+     * @param minutes longest slot in MINUTES, shortened to divide the window evenly
+     */
+    public void setSlotLength(double minutes) {
+        if (!(minutes > 0))
+            throw new IllegalArgumentException("Slot length must be positive: " + minutes);
+        this.slotLength = minutes;
+    }
+
+    /**
+     * @param solarTime true if the window is in true solar time as some codes require, local time by default
+     */
+    public void setSolarTime(boolean solarTime) {
+        this.solarTime = solarTime;
+    }
+
+    /**
+     * @param earlyExit false to evaluate every slot, for the exact longest interval of each point
+     */
+    public void setEarlyExit(boolean earlyExit) {
+        this.earlyExit = earlyExit;
+    }
+
+    public int[] getDate() {
+        return date.clone();
+    }
+
+    /**
+     * @return double in HOURS
+     */
+    public double getFrom() {
+        return from;
+    }
+
+    /**
+     * @return double in HOURS
+     */
+    public double getTo() {
+        return to;
+    }
+
+    /**
+     * @return double in HOURS
+     */
+    public double getRequired() {
+        return required;
+    }
+
+    public Requirement getRequirement() {
+        return requirement;
+    }
+
+    public boolean isSolarTime() {
+        return solarTime;
+    }
+
+    public boolean isEarlyExit() {
+        return earlyExit;
+    }
+
+    /**
+     * @return number of slots in the window
+     */
+    public int getSlotNum() {
+        return (int) Math.ceil((to - from) * 60 / slotLength - 1e-9);
+    }
+
+    /**
+     * @return double in HOURS
+     */
+    public double getSlotHours() {
+        return (to - from) / getSlotNum();
+    }
+
+    /**
+     * @return number of lit slots meeting the requirement
+     */
+    public int getRequiredSlots() {
+        return (int) Math.ceil(required / getSlotHours() - 1e-9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ComplianceCheck {%d-%d %.2f - %.2f %s, %s >= %.2f hours}",
+                date[0], date[1], from, to, solarTime ? "solar time" : "local time",
+                requirement, required);
+    }
+}
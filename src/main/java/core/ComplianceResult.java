@@ -0,0 +1,89 @@
+package core;
+
+/**
+ * outcome of a compliance check for each sampling point
+ * with early exit a point stops once decided,
+ * its longest interval and lit time then only cover the slots evaluated
+ *
+ * @author Wu
+ * @create 2021-05-06 10:15
+ */
+
+public class ComplianceResult {
+    private final ComplianceCheck check;
+    private final int slotNum;
+    private final double slotHours;
+    final boolean[] passed;
+    /**
+     * longest continuous lit slots and lit slots of each point
+     */
+    final int[] longest, lit;
+    /**
+     * slots evaluated of each point
+     */
+    final int[] evaluated;
+
+    ComplianceResult(ComplianceCheck check, int pointNum) {
+        this.check = check;
+        this.slotNum = check.getSlotNum();
+        this.slotHours = check.getSlotHours();
+        this.passed = new boolean[pointNum];
+        this.longest = new int[pointNum];
+        this.lit = new int[pointNum];
+        this.evaluated = new int[pointNum];
+    }
+
+    public ComplianceCheck getCheck() {
+        return check;
+    }
+
+    public int getPointNum() {
+        return passed.length;
+    }
+
+    public boolean isPassed(int i) {
+        return passed[i];
+    }
+
+    /**
+     * @param i index of the point
+     * @return double in HOURS
+     */
+    public double getLongest(int i) {
+        return longest[i] * slotHours;
+    }
+
+    /**
+     * @param i index of the point
+     * @return double in HOURS
+     */
+    public double getLit(int i) {
+        return lit[i] * slotHours;
+    }
+
+    public int getPassNum() {
+        int n = 0;
+        for (boolean p : passed)
+            if (p)
+                n++;
+        return n;
+    }
+
+    /**
+     * @return slots evaluated of all slots of all points, in [0, 1]
+     */
+    public double getEvaluatedFraction() {
+        if (passed.length == 0)
+            return 0;
+        long n = 0;
+        for (int e : evaluated)
+            n += e;
+        return (double) n / ((long) slotNum * passed.length);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ComplianceResult {%d of %d points passed, %.1f%% slots evaluated, %s}",
+                getPassNum(), passed.length, getEvaluatedFraction() * 100, check);
+    }
+}
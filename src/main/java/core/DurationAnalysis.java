@@ -1,17 +1,18 @@
 package core;
 
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygonal;
 import processing.core.PApplet;
 import processing.core.PConstants;
+import processing.core.PImage;
 import utility.JtsRender;
-import utility.PolyHandler;
 import wblut.geom.*;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 /**
  * grid analysis of site sunlight hours
@@ -21,144 +22,1073 @@ import java.util.concurrent.TimeUnit;
  */
 
 public class DurationAnalysis {
-    private static final int THREAD_COUNT = 25;
+    /**
+     * grid analysis method
+     * POINT - a point-in-shadow query per cell at each step
+     * RASTER - each shadow scan-converted into a counter grid, ground grids only
+     * PACKET - rays to the sun traced in packets of a tile, buildings culled per tile
+     * HORIZON - horizon profile of each cell computed once for the grid, reused on other dates
+     * ANALYTIC - shadowed intervals solved in the hour angle, exact, prism buildings only
+     */
+    public enum Method {POINT, RASTER, PACKET, HORIZON, ANALYTIC}
+
+    /**
+     * 3D points analysis method
+     * RAY - an exact ray per point at each step
+     * SHADOW_MAP - a depth map per step, a lookup per point
+     * ADAPTIVE - rays at the steps of a coarse path, intervals of a changed state bisected in time
+     */
+    public enum PointsMethod {RAY, SHADOW_MAP, ADAPTIVE}
+
+    /**
+     * all-day shadow with the sun path it was cast by,
+     * indexed once for point queries, null for a step without shadow,
+     * read only by the grid tiles
+     */
+    private static class AllDayShadow {
+        private final SunPath sunPath;
+        private final Geometry[] shadow;
+        private final IndexedPointInAreaLocator[] locators;
+
+        private AllDayShadow(SunPath sunPath, Geometry[] shadow) {
+            this.sunPath = sunPath;
+            this.shadow = shadow;
+            if (null == shadow) {
+                locators = null;
+                return;
+            }
+            locators = new IndexedPointInAreaLocator[shadow.length];
+            Coordinate warm = new Coordinate();
+            for (int i = 0; i < shadow.length; i++) {
+                if (null == shadow[i])
+                    continue;
+                locators[i] = new IndexedPointInAreaLocator(
+                        shadow[i] instanceof Polygonal ? shadow[i] : shadow[i].buffer(0));
+                // the interval tree is built on the first query, here rather than in the grid tiles
+                locators[i].locate(warm);
+            }
+        }
+    }
+
+    /**
+     * last occluder at each step of the previous point on a thread
+     */
+    private static class OccluderCache {
+        private final BVH bvh;
+        private final int[] stepHit;
+
+        private OccluderCache(BVH bvh, int stepNum) {
+            this.bvh = bvh;
+            this.stepHit = new int[stepNum];
+            Arrays.fill(stepHit, -1);
+        }
+    }
+
+    private static final ThreadLocal<OccluderCache> OCCLUDER_CACHE = new ThreadLocal<>();
+
+    /**
+     * rays from one point, the last occluder tried first
+     */
+    private static class PointTracer {
+        /**
+         * occluder of the sun below the horizon
+         */
+        private static final int HORIZON = -2;
+
+        private final BVH bvh;
+        private final double x, y, z;
+        private int last = -1;
+        private int rays, occluded, pointHits;
+
+        private PointTracer(BVH bvh, WB_Point p) {
+            this.bvh = bvh;
+            this.x = p.xd();
+            this.y = p.yd();
+            this.z = p.zd();
+        }
+
+        /**
+         * @return index of the building in the way, -1 if lit
+         */
+        private int occluder(double dx, double dy, double dz) {
+            if (dz <= 0)
+                return HORIZON;
+            rays++;
+            int hit;
+            if (last >= 0 && bvh.hits(last, x, y, z, dx, dy, dz)) {
+                hit = last;
+                pointHits++;
+            } else {
+                hit = bvh.anyHit(x, y, z, dx, dy, dz);
+            }
+            if (hit < 0)
+                return -1;
+            occluded++;
+            last = hit;
+            return bvh.getBuilding(hit);
+        }
+    }
+
+    /**
+     * slots of a compliance window seen from one point, each evaluated once,
+     * by the horizon profile if given, otherwise by a ray
+     */
+    private static class WindowTracer {
+        private static final byte UNKNOWN = 0, LIT = 1, SHADOWED = 2;
+
+        private final PointTracer tracer;
+        private final HorizonProfile horizon;
+        private final double[] slotX, slotY, slotZ, slotLevel;
+        private final int[] slotBin;
+        private final byte[] state;
+        private int evaluated;
+
+        private WindowTracer(PointTracer tracer, HorizonProfile horizon,
+                             double[] slotX, double[] slotY, double[] slotZ,
+                             int[] slotBin, double[] slotLevel) {
+            this.tracer = tracer;
+            this.horizon = horizon;
+            this.slotX = slotX;
+            this.slotY = slotY;
+            this.slotZ = slotZ;
+            this.slotBin = slotBin;
+            this.slotLevel = slotLevel;
+            this.state = new byte[slotX.length];
+        }
+
+        private boolean lit(int k) {
+            if (state[k] == UNKNOWN) {
+                evaluated++;
+                // below the horizon the level passes the quantum and would read as lit
+                HorizonProfile.Visibility v = slotZ[k] <= 0 ? HorizonProfile.Visibility.SHADOWED
+                        : null == horizon ? HorizonProfile.Visibility.UNKNOWN
+                        : horizon.classify(slotBin[k], slotLevel[k]);
+                boolean lit = v == HorizonProfile.Visibility.UNKNOWN
+                        ? tracer.occluder(slotX[k], slotY[k], slotZ[k]) == -1
+                        : v == HorizonProfile.Visibility.LIT;
+                state[k] = lit ? LIT : SHADOWED;
+            }
+            return state[k] == LIT;
+        }
+    }
+
+    /**
+     * horizon profiles of a grid, filled as the cells are analysed
+     */
+    private static class HorizonGrid {
+        private final WB_Point leftBottom, rightTop;
+        private final int row, col, bins;
+        private final TriangleStore tris;
+        private final HorizonProfile[] profiles;
+
+        private HorizonGrid(WB_Point leftBottom, WB_Point rightTop, int row, int col,
+                            int bins, TriangleStore tris) {
+            this.leftBottom = leftBottom;
+            this.rightTop = rightTop;
+            this.row = row;
+            this.col = col;
+            this.bins = bins;
+            this.tris = tris;
+            this.profiles = new HorizonProfile[row * col];
+        }
+
+        private boolean matches(WB_Point leftBottom, WB_Point rightTop, int row, int col,
+                                int bins, TriangleStore tris) {
+            return this.leftBottom.xd() == leftBottom.xd() && this.leftBottom.yd() == leftBottom.yd()
+                    && this.rightTop.xd() == rightTop.xd() && this.rightTop.yd() == rightTop.yd()
+                    && this.row == row && this.col == col && this.bins == bins && this.tris == tris;
+        }
+    }
 
     private final Scene scene;
-    private final Building[] buildings;
-    private Geometry[] allDayShadow;
-    private List<ArrayList<WB_Triangle>> allDayShadowTris;
+    private final AnalysisMetrics metrics = new AnalysisMetrics();
+    private volatile AllDayShadow allDayShadow;
+
+    private volatile SamplingPoint sample;
+    private volatile List<SamplingPoint> samples;
+    private volatile AnalysisJob gridJob;
+    private volatile AnalysisJob finishedGridJob;
+    private volatile Method method = Method.POINT;
+    private volatile int supersample = 1;
+    private volatile PointsMethod pointsMethod = PointsMethod.RAY;
+    private volatile int mapResolution = 1024;
+    private volatile double mapBias = 0.5;
+    private volatile int mapFilter = 1;
+    private volatile int horizonBins = HorizonProfile.DEFAULT_BINS;
+    private volatile HorizonGrid horizonGrid;
+    private volatile double directionTolerance = Math.toRadians(0.1);
+    private volatile double timeTolerance = 1;
+    private volatile GridResult.Quantization gridQuantization = GridResult.Quantization.NONE;
+    private volatile boolean gridLitMasks = false;
 
-    private SamplingPoint sample;
-    private List<SamplingPoint> samples;
-    private SamplingPoint[][] grids;
-    private WB_Point leftBottom, rightTop;
-    private float gridWidth, gridHeight;
+    // raster image of the displayed grid, on the draw thread only
+    private PImage gridImage;
+    private AnalysisJob gridImageJob;
+    private int gridImageDone = -1;
 
     public DurationAnalysis(Scene scene) {
-        buildings = scene.getBuildings().toArray(new Building[0]);
-        this.scene=scene;
+        this.scene = scene;
         scene.setAnalysis(this);
 
         updateAllDayShadow();
         scene.init();
     }
 
+    public void setMethod(Method method) {
+        this.method = method;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * sub-cell samples along each side for Method.RASTER
+     *
+     * @param supersample 1 for the cell center only
+     */
+    public void setSupersample(int supersample) {
+        if (supersample < 1)
+            throw new IllegalArgumentException("Supersample must be positive: " + supersample);
+        this.supersample = supersample;
+    }
+
+    public void setPointsMethod(PointsMethod pointsMethod) {
+        this.pointsMethod = pointsMethod;
+    }
+
+    public PointsMethod getPointsMethod() {
+        return pointsMethod;
+    }
+
+    /**
+     * bisection stops once the interval of a state change is shorter, for PointsMethod.ADAPTIVE
+     *
+     * @param minutes time tolerance in MINUTES
+     */
+    public void setTimeTolerance(double minutes) {
+        if (!(minutes > 0))
+            throw new IllegalArgumentException("Time tolerance must be positive: " + minutes);
+        timeTolerance = minutes;
+    }
+
+    /**
+     * counters of the ray queries of the 3D analysis
+     *
+     * @return AnalysisMetrics
+     */
+    public AnalysisMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * storage of the grid durations, a float per cell by default
+     *
+     * @param quantization Quantization
+     */
+    public void setGridQuantization(GridResult.Quantization quantization) {
+        this.gridQuantization = quantization;
+    }
+
+    /**
+     * @param keep true to keep the lit mask of each cell packed in the grid result,
+     *             not for the raster and analytic methods
+     */
+    public void setGridLitMasks(boolean keep) {
+        this.gridLitMasks = keep;
+    }
+
+    /**
+     * settings of PointsMethod.SHADOW_MAP
+     *
+     * @param resolution   texels along the longer side of each map
+     * @param bias         depth tolerance in the scene unit
+     * @param filterRadius percentage-closer filter radius in texels, 0 for none
+     */
+    public void setShadowMap(int resolution, double bias, int filterRadius) {
+        if (resolution < 1)
+            throw new IllegalArgumentException("Resolution must be positive: " + resolution);
+        if (bias < 0)
+            throw new IllegalArgumentException("Bias must not be negative: " + bias);
+        if (filterRadius < 0)
+            throw new IllegalArgumentException("Filter radius must not be negative: " + filterRadius);
+        mapResolution = resolution;
+        mapBias = bias;
+        mapFilter = filterRadius;
+    }
+
+    /**
+     * azimuth bins of the horizon profiles computed from now on
+     *
+     * @param bins number of bins over 360 degrees
+     */
+    public void setHorizonBins(int bins) {
+        if (bins < 1)
+            throw new IllegalArgumentException("Bins must be positive: " + bins);
+        horizonBins = bins;
+    }
+
+    /**
+     * steps of a batch analysis closer than the tolerance are tested once
+     *
+     * @param tolerance in RADIANS, at least SunDirections.MIN_TOLERANCE
+     */
+    public void setDirectionTolerance(double tolerance) {
+        if (!(tolerance >= SunDirections.MIN_TOLERANCE))
+            throw new IllegalArgumentException(
+                    "Tolerance must be at least " + SunDirections.MIN_TOLERANCE + ": " + tolerance);
+        directionTolerance = tolerance;
+    }
+
+    /**
+     * compute the horizon profile of each point on the executor,
+     * the points are then analysed by lookup until the buildings change
+     *
+     * @param sps sampling points
+     */
+    public void precomputeHorizons(List<SamplingPoint> sps) {
+        TriangleStore tris = scene.getTriangles();
+        int bins = horizonBins;
+        scene.getExecutor().parallelFor(sps.size(), i -> {
+            WB_Point p = sps.get(i).getPointAbovePlane();
+            sps.get(i).setHorizon(new HorizonProfile(tris, p.xd(), p.yd(), p.zd(), bins));
+        });
+    }
+
     public void updateAllDayShadow() {
-        allDayShadow = Shadow.calAllDayShadow(scene);
-        if (null == allDayShadow)
-            return;
-        allDayShadowTris = new ArrayList<>();
-        for (Geometry g : allDayShadow)
-            if (null != g)
-                allDayShadowTris.add(PolyHandler.toWB_Triangles(g));
+        updateAllDayShadow(scene.getSun().getSunPath(), scene.getType(), scene.getBuildings());
+    }
+
+    /**
+     * all-day shadow of a snapshot, safe to call from a worker thread
+     *
+     * @param sunPath   sun path
+     * @param type      shadow type
+     * @param buildings buildings
+     */
+    public void updateAllDayShadow(SunPath sunPath, Shadow.Type type, List<Building> buildings) {
+        allDayShadow = new AllDayShadow(sunPath,
+                Shadow.calAllDayShadow(sunPath, type, buildings, scene.getExecutor()));
     }
 
     public void pointAnalysis(SamplingPoint sp) {
+        pointAnalysis(sp, scene.getSun().getSunPath());
+    }
+
+    public void pointAnalysis(SamplingPoint sp, SunPath sunPath) {
         sample = sp;
         if (null == sp)
             return;
-        calDuration3D(sample);
+        calDuration3D(sp, sunPath);
         System.out.printf("sample point duration = %.2f hours\n",
-                sample.getDuration());
+                sp.getDuration());
     }
 
     public void pointsAnalysis(List<SamplingPoint> sps) {
+        pointsAnalysis(sps, scene.getSun().getSunPath());
+    }
+
+    public void pointsAnalysis(List<SamplingPoint> sps, SunPath sunPath) {
         samples = sps;
         if (null == sps)
             return;
+        if (pointsMethod == PointsMethod.SHADOW_MAP) {
+            calDurationByShadowMap(sps, sunPath);
+            return;
+        }
         for (SamplingPoint sp : sps)
-            calDuration3D(sp);
+            calDuration3D(sp, sunPath);
+    }
+
+    /**
+     * sunlight duration of the points on several dates in one pass on the executor,
+     * the sun paths calculated up front and their steps deduplicated,
+     * so each distinct direction is tested once per point against the shared BVH
+     * a valid horizon profile of the current bins replaces most rays
+     *
+     * @param sps   sampling points, their durations unchanged
+     * @param dates {month, day} of each date
+     * @return DurationTable
+     */
+    public DurationTable batchAnalysis(List<SamplingPoint> sps, int[][] dates) {
+        if (dates.length == 0)
+            throw new IllegalArgumentException("Dates must not be empty");
+        int[][] copy = new int[dates.length][];
+        for (int d = 0; d < dates.length; d++)
+            copy[d] = dates[d].clone();
+        SunPath[] paths = scene.getSun().calSunPaths(copy);
+        SunDirections dirs = new SunDirections(paths, directionTolerance);
+        DurationTable table = new DurationTable(copy, sps.size(), dirs);
+
+        BVH bvh = scene.getBVH();
+        TriangleStore tris = scene.getTriangles();
+        int bins = horizonBins;
+        int dirNum = dirs.size();
+        int[] dirBin = new int[dirNum];
+        double[] dirLevel = new double[dirNum];
+        for (int u = 0; u < dirNum; u++) {
+            dirBin[u] = HorizonProfile.getBin(dirs.dirX[u], dirs.dirY[u], bins);
+            dirLevel[u] = HorizonProfile.getLevel(dirs.dirX[u], dirs.dirY[u], dirs.dirZ[u]);
+        }
+
+        scene.getExecutor().parallelFor(sps.size(), i -> {
+            SamplingPoint sp = sps.get(i);
+            WB_Point p = sp.getPointAbovePlane();
+            double x = p.xd(), y = p.yd(), z = p.zd();
+            HorizonProfile horizon = sp.getHorizon();
+            boolean lookup = null != horizon && horizon.isValid(tris) && horizon.getBins() == bins;
+            boolean[] lit = new boolean[dirNum];
+            int[] dirHit = occluderCache(bvh, dirNum);
+            int last = -1;
+            int rays = 0, occluded = 0, pointHits = 0, threadHits = 0;
+            for (int u = 0; u < dirNum; u++) {
+                if (lookup) {
+                    HorizonProfile.Visibility v = horizon.classify(dirBin[u], dirLevel[u]);
+                    if (v == HorizonProfile.Visibility.LIT) {
+                        lit[u] = true;
+                        continue;
+                    }
+                    if (v == HorizonProfile.Visibility.SHADOWED)
+                        continue;
+                }
+                double dx = dirs.dirX[u], dy = dirs.dirY[u], dz = dirs.dirZ[u];
+                rays++;
+                int hit;
+                if (last >= 0 && bvh.hits(last, x, y, z, dx, dy, dz)) {
+                    hit = last;
+                    pointHits++;
+                } else if (dirHit[u] >= 0 && dirHit[u] != last
+                        && bvh.hits(dirHit[u], x, y, z, dx, dy, dz)) {
+                    hit = dirHit[u];
+                    threadHits++;
+                } else {
+                    hit = bvh.anyHit(x, y, z, dx, dy, dz);
+                }
+                if (hit >= 0) {
+                    occluded++;
+                    last = hit;
+                    dirHit[u] = hit;
+                } else {
+                    lit[u] = true;
+                }
+            }
+            for (int d = 0; d < paths.length; d++) {
+                double duration = 0;
+                int[] stepDir = dirs.stepDir[d];
+                for (int s = 0; s < stepDir.length; s++)
+                    if (lit[stepDir[s]])
+                        duration += paths[d].weight[s];
+                table.durations[i * paths.length + d] = duration;
+            }
+            metrics.add(rays, occluded, pointHits, threadHits);
+        });
+        return table;
+    }
+
+    /**
+     * pass or fail of the points against a sunlight requirement on the executor,
+     * each point evaluated slot by slot in its window until the outcome is decided
+     * a valid horizon profile of the current bins replaces most rays
+     *
+     * @param sps   sampling points, their durations unchanged
+     * @param check requirement
+     * @return ComplianceResult
+     */
+    public ComplianceResult complianceAnalysis(List<SamplingPoint> sps, ComplianceCheck check) {
+        SunPath sunPath = scene.getSun().calSunPaths(new int[][]{check.getDate()})[0];
+        int n = check.getSlotNum();
+        double slotHours = check.getSlotHours();
+        double from = check.getFrom() - (check.isSolarTime() ? sunPath.getTimeCorrection() : 0);
+        int bins = horizonBins;
+        double[] slotX = new double[n], slotY = new double[n], slotZ = new double[n];
+        double[] slotLevel = new double[n];
+        int[] slotBin = new int[n];
+        double[] dir = new double[3];
+        for (int k = 0; k < n; k++) {
+            sunPath.getDirection(from + (k + 0.5) * slotHours, dir);
+            slotX[k] = dir[0];
+            slotY[k] = dir[1];
+            slotZ[k] = dir[2];
+            slotBin[k] = HorizonProfile.getBin(dir[0], dir[1], bins);
+            slotLevel[k] = HorizonProfile.getLevel(dir[0], dir[1], dir[2]);
+        }
+
+        BVH bvh = scene.getBVH();
+        TriangleStore tris = scene.getTriangles();
+        int required = check.getRequiredSlots();
+        boolean continuous = check.getRequirement() == ComplianceCheck.Requirement.CONTINUOUS;
+        boolean earlyExit = check.isEarlyExit();
+        ComplianceResult result = new ComplianceResult(check, sps.size());
+        scene.getExecutor().parallelFor(sps.size(), i -> {
+            SamplingPoint sp = sps.get(i);
+            HorizonProfile horizon = sp.getHorizon();
+            boolean lookup = null != horizon && horizon.isValid(tris) && horizon.getBins() == bins;
+            PointTracer tracer = new PointTracer(bvh, sp.getPointAbovePlane());
+            WindowTracer window = new WindowTracer(tracer, lookup ? horizon : null,
+                    slotX, slotY, slotZ, slotBin, slotLevel);
+            if (!earlyExit)
+                for (int k = 0; k < n; k++)
+                    window.lit(k);
+            else if (continuous)
+                scanContinuous(window, required);
+            else
+                scanCumulative(window, required);
+
+            // over the slots evaluated, an unknown slot ending a run
+            int run = 0, longest = 0, lit = 0;
+            for (byte b : window.state) {
+                if (b == WindowTracer.LIT) {
+                    lit++;
+                    longest = Math.max(longest, ++run);
+                } else {
+                    run = 0;
+                }
+            }
+            result.passed[i] = (continuous ? longest : lit) >= required;
+            result.longest[i] = longest;
+            result.lit[i] = lit;
+            result.evaluated[i] = window.evaluated;
+            if (tracer.rays > 0)
+                metrics.add(tracer.rays, tracer.occluded, tracer.pointHits, 0);
+        });
+        return result;
+    }
+
+    /**
+     * the last slot of a candidate run checked first, then backward,
+     * so a shadowed slot moves the candidate past it and every run of the required slots
+     * is found with each slot evaluated at most once, a shadowed window in about n / m slots
+     */
+    private static void scanContinuous(WindowTracer window, int required) {
+        int n = window.state.length;
+        // slots [start, known) are lit
+        int start = 0, known = 0;
+        while (start + required <= n) {
+            int end = start + required - 1;
+            int k = end;
+            while (k >= known && window.lit(k))
+                k--;
+            if (k < known)
+                return;
+            start = k + 1;
+            known = end + 1;
+        }
+    }
+
+    /**
+     * in time order until the lit slots reach the requirement
+     * or the slots left can no longer make it up
+     */
+    private static void scanCumulative(WindowTracer window, int required) {
+        int n = window.state.length;
+        int lit = 0;
+        for (int k = 0; k < n; k++) {
+            if (window.lit(k))
+                lit++;
+            if (lit >= required || lit + n - 1 - k < required)
+                return;
+        }
     }
 
     public void gridAnalysis(WB_Point leftBottom, WB_Point rightTop,
                              int row, int col) {
-        this.leftBottom = leftBottom;
-        this.rightTop = rightTop;
-        grids = new SamplingPoint[row][col];
-
-        gridWidth = (float) ((rightTop.xd() - leftBottom.xd()) / col);
-        gridHeight = (float) ((rightTop.yd() - leftBottom.yd()) / row);
-
-        long startTime = System.currentTimeMillis();
-        // multi-thread
-        ExecutorService fixedThreadPool = Executors.newFixedThreadPool(THREAD_COUNT);
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < col; j++) {
-                int finalI = i;
-                int finalJ = j;
-                fixedThreadPool.execute(() -> {
-                    grids[finalI][finalJ] = new SamplingPoint(new WB_Point(
-                            leftBottom.xd() + (finalJ + 0.5) * gridWidth,
-                            leftBottom.yd() + (finalI + 0.5) * gridHeight));
-                    calDuration(grids[finalI][finalJ]);
-                });
+        AnalysisJob job = submitGridAnalysis(leftBottom, rightTop, row, col, null);
+        if (job.join())
+            System.out.printf("TOTAL TIME: %.2fs%n", job.getElapsed() / 1e3);
+    }
+
+    /**
+     * grid analysis on the scene executor without waiting,
+     * the running one is cancelled and the result is shown once finished
+     *
+     * @param leftBottom left bottom corner
+     * @param rightTop   right top corner
+     * @param row        number of rows
+     * @param col        number of columns
+     * @param listener   progress listener, nullable
+     * @return AnalysisJob
+     */
+    public AnalysisJob submitGridAnalysis(WB_Point leftBottom, WB_Point rightTop,
+                                          int row, int col,
+                                          AnalysisJob.ProgressListener listener) {
+        cancelGridAnalysis();
+        if (method == Method.RASTER)
+            return submitRasterAnalysis(leftBottom, rightTop, row, col, listener);
+        if (method == Method.PACKET)
+            return submitPacketAnalysis(leftBottom, rightTop, row, col, listener);
+        if (method == Method.HORIZON)
+            return submitHorizonAnalysis(leftBottom, rightTop, row, col, listener);
+        if (method == Method.ANALYTIC)
+            return submitAnalyticAnalysis(leftBottom, rightTop, row, col, listener);
+
+        // shadows of this request, kept if updated during the run
+        AllDayShadow shadow = allDayShadow;
+        boolean masks = null != shadow && null != shadow.shadow && gridLitMasks;
+
+        GridResult result = new GridResult(leftBottom, rightTop, row, col, gridQuantization,
+                masks ? shadow.sunPath : null);
+        AnalysisJob job = new AnalysisJob(result, listener);
+        gridJob = job;
+        // Morton-ordered tiles on the scene executor
+        job.setTask(scene.getExecutor().submitTiles(row, col, (rowStart, rowEnd, colStart, colEnd) -> {
+            for (int i = rowStart; i < rowEnd; i++) {
+                if (job.isCancelled())
+                    return;
+                for (int j = colStart; j < colEnd; j++) {
+                    LitMask mask = masks ? new LitMask(shadow.sunPath) : null;
+                    result.setDuration(i, j, calDuration(result.getCellX(j), result.getCellY(i), shadow, mask));
+                    if (masks)
+                        result.setLitMask(i, j, mask);
+                }
             }
-        }
-        fixedThreadPool.shutdown();
-        try {
-            if (!fixedThreadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
-                fixedThreadPool.shutdownNow();
-                if (!fixedThreadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS))
-                    System.out.println("Thread pool did not terminate.");
+            if (job.advance((rowEnd - rowStart) * (colEnd - colStart)) && !job.isCancelled())
+                finishedGridJob = job;
+        }));
+        return job;
+    }
+
+    /**
+     * each tile a packet per step, traced only if a building may shadow the swept tile
+     */
+    private AnalysisJob submitPacketAnalysis(WB_Point leftBottom, WB_Point rightTop,
+                                             int row, int col,
+                                             AnalysisJob.ProgressListener listener) {
+        AllDayShadow shadow = allDayShadow;
+        SunPath sunPath = null == shadow ? scene.getSun().getSunPath() : shadow.sunPath;
+        BVH bvh = scene.getBVH();
+        List<Building> buildings = scene.getBuildings();
+        boolean masks = gridLitMasks;
+        double[] boxes = new double[buildings.size() * 6];
+        for (int b = 0; b < buildings.size(); b++)
+            System.arraycopy(buildings.get(b).getTriangles().getBounds(), 0, boxes, b * 6, 6);
+
+        GridResult result = new GridResult(leftBottom, rightTop, row, col, gridQuantization,
+                masks ? sunPath : null);
+        AnalysisJob job = new AnalysisJob(result, listener);
+        gridJob = job;
+        job.setTask(scene.getExecutor().submitTiles(row, col, (rowStart, rowEnd, colStart, colEnd) -> {
+            if (job.isCancelled())
+                return;
+            int n = (rowEnd - rowStart) * (colEnd - colStart);
+            RayPacket packet = new RayPacket(n);
+            for (int i = rowStart; i < rowEnd; i++)
+                for (int j = colStart; j < colEnd; j++)
+                    packet.add(result.getCellX(j), result.getCellY(i), SamplingPoint.OFFSET);
+
+            double[] duration = new double[n];
+            LitMask[] cellMasks = new LitMask[masks ? n : 0];
+            for (int k = 0; k < cellMasks.length; k++)
+                cellMasks[k] = new LitMask(sunPath);
+            long culled = 0, visits = 0;
+            int stepNum = sunPath.hasPath() ? sunPath.getStepNum() : 0;
+            for (int s = 0; s < stepNum; s++) {
+                packet.setDirection(sunPath.dirX[s], sunPath.dirY[s], sunPath.dirZ[s]);
+                boolean candidate = false;
+                for (int b = 0; b < buildings.size() && !candidate; b++)
+                    candidate = packet.mayHit(boxes, b * 6);
+                if (candidate)
+                    visits += bvh.trace(packet);
+                else
+                    culled++;
+                for (int k = 0; k < n; k++) {
+                    if (!packet.isHit(k)) {
+                        duration[k] += sunPath.weight[s];
+                        if (masks)
+                            cellMasks[k].setLit(s);
+                    }
+                }
+            }
+            metrics.addPackets(stepNum, culled, visits);
+
+            for (int i = rowStart, k = 0; i < rowEnd; i++) {
+                for (int j = colStart; j < colEnd; j++, k++) {
+                    result.setDuration(i, j, duration[k]);
+                    if (masks)
+                        result.setLitMask(i, j, cellMasks[k]);
+                }
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            if (job.advance(n) && !job.isCancelled())
+                finishedGridJob = job;
+        }));
+        return job;
+    }
+
+    /**
+     * profiles kept while the extent and the buildings stay the same,
+     * the cells of a later date only compared against the sun path
+     */
+    private AnalysisJob submitHorizonAnalysis(WB_Point leftBottom, WB_Point rightTop,
+                                              int row, int col,
+                                              AnalysisJob.ProgressListener listener) {
+        AllDayShadow shadow = allDayShadow;
+        SunPath sunPath = null == shadow ? scene.getSun().getSunPath() : shadow.sunPath;
+        TriangleStore tris = scene.getTriangles();
+        boolean masks = gridLitMasks;
+        BVH bvh = scene.getBVH();
+        int bins = horizonBins;
+        HorizonGrid cache = horizonGrid;
+        if (null == cache || !cache.matches(leftBottom, rightTop, row, col, bins, tris)) {
+            cache = new HorizonGrid(leftBottom, rightTop, row, col, bins, tris);
+            horizonGrid = cache;
         }
-        long endTime = System.currentTimeMillis();
-        System.out.printf("TOTAL TIME: %.2fs%n", (endTime - startTime) / 1e3);
+        HorizonProfile[] profiles = cache.profiles;
+        // the sun of each step in the bins of the profiles
+        int stepNum = sunPath.hasPath() ? sunPath.getStepNum() : 0;
+        int[] stepBin = new int[stepNum];
+        double[] stepLevel = new double[stepNum];
+        for (int s = 0; s < stepNum; s++) {
+            stepBin[s] = HorizonProfile.getBin(sunPath.dirX[s], sunPath.dirY[s], bins);
+            stepLevel[s] = HorizonProfile.getLevel(sunPath.dirX[s], sunPath.dirY[s], sunPath.dirZ[s]);
+        }
+
+        GridResult result = new GridResult(leftBottom, rightTop, row, col, gridQuantization,
+                masks ? sunPath : null);
+        AnalysisJob job = new AnalysisJob(result, listener);
+        gridJob = job;
+        job.setTask(scene.getExecutor().submitTiles(row, col, (rowStart, rowEnd, colStart, colEnd) -> {
+            for (int i = rowStart; i < rowEnd; i++) {
+                if (job.isCancelled())
+                    return;
+                for (int j = colStart; j < colEnd; j++) {
+                    double x = result.getCellX(j), y = result.getCellY(i), z = SamplingPoint.OFFSET;
+                    // computed once, a racing job computes the same profile
+                    HorizonProfile profile = profiles[i * col + j];
+                    if (null == profile) {
+                        profile = new HorizonProfile(tris, x, y, z, bins);
+                        profiles[i * col + j] = profile;
+                    }
+                    LitMask mask = masks ? new LitMask(sunPath) : null;
+                    result.setDuration(i, j, calDurationByHorizon(profile, x, y, z, sunPath, bvh,
+                            stepBin, stepLevel, mask));
+                    if (masks)
+                        result.setLitMask(i, j, mask);
+                }
+            }
+            if (job.advance((rowEnd - rowStart) * (colEnd - colStart)) && !job.isCancelled())
+                finishedGridJob = job;
+        }));
+        return job;
     }
 
-    private void calDuration(SamplingPoint sp) {
-        if (null == allDayShadow)
-            return;
+    /**
+     * intervals of each cell solved against the prisms reaching it, no time sampling
+     */
+    private AnalysisJob submitAnalyticAnalysis(WB_Point leftBottom, WB_Point rightTop,
+                                               int row, int col,
+                                               AnalysisJob.ProgressListener listener) {
+        for (Building b : scene.getBuildings())
+            if (!b.isPrism())
+                throw new IllegalArgumentException("Method.ANALYTIC needs buildings extruded from a base polygon");
+        AllDayShadow shadow = allDayShadow;
+        SunPath sunPath = null == shadow ? scene.getSun().getSunPath() : shadow.sunPath;
+        PrismStore prisms = scene.getBVH().getPrisms();
+        double z = SamplingPoint.OFFSET;
+        for (int i = 0; i < prisms.size(); i++)
+            if (prisms.z0[i] > z)
+                throw new IllegalArgumentException("Method.ANALYTIC needs the buildings based on the ground");
+
+        GridResult result = new GridResult(leftBottom, rightTop, row, col, gridQuantization, null);
+        AnalysisJob job = new AnalysisJob(result, listener);
+        gridJob = job;
+        job.setTask(scene.getExecutor().submitTiles(row, col, (rowStart, rowEnd, colStart, colEnd) -> {
+            AnalyticShadow solver = new AnalyticShadow(prisms);
+            for (int i = rowStart; i < rowEnd; i++) {
+                if (job.isCancelled())
+                    return;
+                for (int j = colStart; j < colEnd; j++)
+                    result.setDuration(i, j, solver.calDuration(result.getCellX(j), result.getCellY(i), z, sunPath));
+            }
+            if (job.advance((rowEnd - rowStart) * (colEnd - colStart)) && !job.isCancelled())
+                finishedGridJob = job;
+        }));
+        return job;
+    }
+
+    /**
+     * shadows scan-converted once, then the rows filled in blocks of TILE_SIZE
+     */
+    private AnalysisJob submitRasterAnalysis(WB_Point leftBottom, WB_Point rightTop,
+                                             int row, int col,
+                                             AnalysisJob.ProgressListener listener) {
+        AllDayShadow shadow = allDayShadow;
+        ShadowRaster raster = new ShadowRaster(leftBottom, rightTop, row, col, supersample,
+                null == shadow ? null : shadow.shadow,
+                null == shadow ? 0 : shadow.sunPath.getSunlightDuration());
+
+        AnalysisJob job = new AnalysisJob(raster, listener);
+        gridJob = job;
+        // a single column of tiles, each a block of full rows
+        job.setTask(scene.getExecutor().submitTiles(row, 1, (rowStart, rowEnd, colStart, colEnd) -> {
+            if (job.isCancelled())
+                return;
+            raster.rasterize(rowStart, rowEnd);
+            job.setRasterRowsDone(rowStart, rowEnd);
+            if (job.advance((rowEnd - rowStart) * col) && !job.isCancelled())
+                finishedGridJob = job;
+        }));
+        return job;
+    }
+
+    /**
+     * stop the running grid analysis
+     */
+    public void cancelGridAnalysis() {
+        AnalysisJob job = gridJob;
+        if (null != job)
+            job.cancel();
+    }
 
+    /**
+     * @return the latest grid analysis, running or not
+     */
+    public AnalysisJob getGridJob() {
+        return gridJob;
+    }
+
+    /**
+     * @param mask lit steps set, nullable
+     * @return sunlight duration in HOURS of a ground point, 0 without shadows
+     */
+    private static double calDuration(double x, double y, AllDayShadow shadow, LitMask mask) {
+        if (null == shadow || null == shadow.shadow)
+            return 0;
+
+        // on the boundary counts as in shadow, a step without shadow too, as in ShadowRaster
+        Coordinate c = new Coordinate(x, y);
         int counter = 0;
-        for (ArrayList<WB_Triangle> l : allDayShadowTris) {
-            if (!WB_GeometryOp.contains2D(sp.getPointAbovePlane(), l))
+        for (int i = 0; i < shadow.locators.length; i++) {
+            IndexedPointInAreaLocator locator = shadow.locators[i];
+            if (null != locator && locator.locate(c) == Location.EXTERIOR) {
                 counter++;
+                if (null != mask)
+                    mask.setLit(i);
+            }
         }
 
-        sp.setDuration(scene.getSun().getSunlightDuration() * counter / allDayShadow.length);
+        return shadow.sunPath.getSunlightDuration() * counter / shadow.shadow.length;
     }
 
-    private void calDuration3D(SamplingPoint sp) {
-        WB_PolyLine path = scene.getSun().getPath();
-        if (null == path)
+    /**
+     * a valid horizon profile of the point replaces the rays,
+     * otherwise the last occluder of the point, then the one of the previous point at the same step,
+     * are tried before a traversal
+     */
+    private void calDuration3D(SamplingPoint sp, SunPath sunPath) {
+        if (!sunPath.hasPath())
             return;
-        WB_Point[] sunPositions = new WB_Point[scene.getSun().getPathDiv() - 2];
-        int counter = sunPositions.length;
-        WB_Point samplingPoint = sp.getPointAbovePlane();
-        for (int i = 0; i < sunPositions.length; i++) {
-            sunPositions[i] = path.getPoint(i + 1);
-            WB_Ray ray = PolyHandler.gf.createRayThroughPoints(
-                    samplingPoint, samplingPoint.add(sunPositions[i]));
-            shield:
-            for (Building b : buildings) {
-                List<WB_Triangle> tris = b.getTris();
-                for (WB_Triangle tri : tris) {
-                    if (PolyHandler.checkRayTriIntersection(ray, tri)) {
-                        counter--;
-                        break shield;
-                    }
+        if (pointsMethod == PointsMethod.ADAPTIVE) {
+            calDurationAdaptive(sp, sunPath);
+            return;
+        }
+        BVH bvh = scene.getBVH();
+        WB_Point p = sp.getPointAbovePlane();
+        HorizonProfile horizon = sp.getHorizon();
+        if (null != horizon && horizon.isValid(scene.getTriangles())) {
+            int stepNum = sunPath.getStepNum();
+            int[] stepBin = new int[stepNum];
+            double[] stepLevel = new double[stepNum];
+            for (int s = 0; s < stepNum; s++) {
+                stepBin[s] = HorizonProfile.getBin(sunPath.dirX[s], sunPath.dirY[s], horizon.getBins());
+                stepLevel[s] = HorizonProfile.getLevel(sunPath.dirX[s], sunPath.dirY[s], sunPath.dirZ[s]);
+            }
+            LitMask mask = new LitMask(sunPath);
+            sp.setDuration(calDurationByHorizon(horizon, p.xd(), p.yd(), p.zd(), sunPath, bvh,
+                    stepBin, stepLevel, mask));
+            sp.setLitMask(mask);
+            return;
+        }
+        double x = p.xd(), y = p.yd(), z = p.zd();
+        double[] dirX = sunPath.dirX, dirY = sunPath.dirY, dirZ = sunPath.dirZ;
+        double[] weight = sunPath.weight;
+        int[] stepHit = occluderCache(bvh, weight.length);
+        LitMask mask = new LitMask(sunPath);
+        // no allocation per ray
+        double duration = 0;
+        int last = -1;
+        int occluded = 0, pointHits = 0, threadHits = 0;
+        for (int i = 0; i < weight.length; i++) {
+            double dx = dirX[i], dy = dirY[i], dz = dirZ[i];
+            int hit;
+            if (last >= 0 && bvh.hits(last, x, y, z, dx, dy, dz)) {
+                hit = last;
+                pointHits++;
+            } else if (stepHit[i] >= 0 && stepHit[i] != last
+                    && bvh.hits(stepHit[i], x, y, z, dx, dy, dz)) {
+                hit = stepHit[i];
+                threadHits++;
+            } else {
+                hit = bvh.anyHit(x, y, z, dx, dy, dz);
+            }
+            if (hit >= 0) {
+                occluded++;
+                last = hit;
+                stepHit[i] = hit;
+            } else {
+                duration += weight[i];
+                mask.setLit(i);
+            }
+        }
+        sp.setDuration(duration);
+        sp.setLitMask(mask);
+        metrics.add(weight.length, occluded, pointHits, threadHits);
+    }
+
+    /**
+     * sunrise, the steps of the path and sunset are the coarse samples,
+     * the state taken as constant between them, an interval whose ends differ
+     * in the state or the building in the way is bisected until shorter than the time tolerance,
+     * a change placed at the middle of the last interval
+     * a shadow shorter than a step between two lit samples is not seen
+     * the mask holds the states at the steps only
+     */
+    private void calDurationAdaptive(SamplingPoint sp, SunPath sunPath) {
+        int stepNum = sunPath.weight.length;
+        PointTracer tracer = new PointTracer(scene.getBVH(), sp.getPointAbovePlane());
+        LitMask mask = new LitMask(sunPath);
+        double tolerance = timeTolerance / 60;
+        double[] dir = new double[3];
+
+        double t0 = sunPath.getSunrise();
+        sunPath.getDirection(t0, dir);
+        int h0 = tracer.occluder(dir[0], dir[1], dir[2]);
+        double duration = 0;
+        for (int i = 0; i <= stepNum; i++) {
+            double t1;
+            int h1;
+            if (i < stepNum) {
+                t1 = sunPath.getStepTime(i);
+                h1 = tracer.occluder(sunPath.dirX[i], sunPath.dirY[i], sunPath.dirZ[i]);
+                if (h1 == -1)
+                    mask.setLit(i);
+            } else {
+                t1 = sunPath.getSunset();
+                sunPath.getDirection(t1, dir);
+                h1 = tracer.occluder(dir[0], dir[1], dir[2]);
+            }
+            duration += calLitTime(tracer, sunPath, t0, h0, t1, h1, tolerance, dir);
+            t0 = t1;
+            h0 = h1;
+        }
+        sp.setDuration(duration);
+        sp.setLitMask(mask);
+        metrics.add(tracer.rays, tracer.occluded, tracer.pointHits, 0);
+    }
+
+    /**
+     * lit time in [t0, t1] from the occluders at both ends, -1 for lit
+     */
+    private static double calLitTime(PointTracer tracer, SunPath sunPath,
+                                     double t0, int h0, double t1, int h1,
+                                     double tolerance, double[] dir) {
+        if (h0 == h1)
+            return h0 == -1 ? t1 - t0 : 0;
+        if (t1 - t0 <= tolerance) {
+            if ((h0 == -1) == (h1 == -1))
+                return h0 == -1 ? t1 - t0 : 0;
+            return (t1 - t0) / 2;
+        }
+        double m = (t0 + t1) / 2;
+        sunPath.getDirection(m, dir);
+        int hm = tracer.occluder(dir[0], dir[1], dir[2]);
+        return calLitTime(tracer, sunPath, t0, h0, m, hm, tolerance, dir)
+                + calLitTime(tracer, sunPath, m, hm, t1, h1, tolerance, dir);
+    }
+
+    /**
+     * a lookup per step, a ray only for the sun between the ground and the top of its bin
+     *
+     * @param mask lit steps set, nullable
+     * @return sunlight duration in HOURS
+     */
+    private double calDurationByHorizon(HorizonProfile horizon, double x, double y, double z,
+                                        SunPath sunPath, BVH bvh,
+                                        int[] stepBin, double[] stepLevel, LitMask mask) {
+        double duration = 0;
+        int rays = 0, occluded = 0;
+        for (int i = 0; i < sunPath.weight.length; i++) {
+            HorizonProfile.Visibility v = horizon.classify(stepBin[i], stepLevel[i]);
+            if (v == HorizonProfile.Visibility.UNKNOWN) {
+                rays++;
+                if (bvh.occluded(x, y, z, sunPath.dirX[i], sunPath.dirY[i], sunPath.dirZ[i])) {
+                    occluded++;
+                    continue;
                 }
+            } else if (v == HorizonProfile.Visibility.SHADOWED) {
+                continue;
             }
+            duration += sunPath.weight[i];
+            if (null != mask)
+                mask.setLit(i);
+        }
+        if (rays > 0)
+            metrics.add(rays, occluded, 0, 0);
+        return duration;
+    }
+
+    /**
+     * occluders of the thread, cleared when the BVH or the steps change
+     */
+    private static int[] occluderCache(BVH bvh, int stepNum) {
+        OccluderCache cache = OCCLUDER_CACHE.get();
+        if (null == cache || cache.bvh != bvh || cache.stepHit.length != stepNum) {
+            cache = new OccluderCache(bvh, stepNum);
+            OCCLUDER_CACHE.set(cache);
+        }
+        return cache.stepHit;
+    }
+
+    /**
+     * a depth map per step on the executor, each point looked up in every map
+     * a step at least half lit by the filter counted lit in the mask
+     */
+    private void calDurationByShadowMap(List<SamplingPoint> sps, SunPath sunPath) {
+        if (!sunPath.hasPath())
+            return;
+        TriangleStore tris = scene.getTriangles();
+        int resolution = mapResolution;
+        double bias = mapBias;
+        int filter = mapFilter;
+        int stepNum = sunPath.getStepNum();
+        double[][] lit = new double[stepNum][];
+        scene.getExecutor().parallelFor(stepNum, i -> {
+            ShadowMap map = new ShadowMap(tris, sunPath.dirX[i], sunPath.dirY[i], sunPath.dirZ[i],
+                    resolution, bias);
+            double[] l = new double[sps.size()];
+            for (int j = 0; j < l.length; j++) {
+                WB_Point p = sps.get(j).getPointAbovePlane();
+                l[j] = map.getLitFraction(p.xd(), p.yd(), p.zd(), filter);
+            }
+            lit[i] = l;
+        });
+        for (int j = 0; j < sps.size(); j++) {
+            LitMask mask = new LitMask(sunPath);
+            double duration = 0;
+            for (int i = 0; i < stepNum; i++) {
+                duration += sunPath.weight[i] * lit[i][j];
+                if (lit[i][j] >= 0.5)
+                    mask.setLit(i);
+            }
+            sps.get(j).setDuration(duration);
+            sps.get(j).setLitMask(mask);
         }
-        sp.setDuration(scene.getSun().getSunlightDuration() * counter / sunPositions.length);
     }
 
     public void displayAllDayShadow(JtsRender jtsRender) {
-        if (null == allDayShadow)
+        AllDayShadow allDayShadow = this.allDayShadow;
+        if (null == allDayShadow || null == allDayShadow.shadow)
             return;
         PApplet app = jtsRender.getApp();
         app.pushStyle();
         app.noStroke();
         app.fill(0x22000000);
-        for (Geometry g : allDayShadow)
+        for (Geometry g : allDayShadow.shadow)
             jtsRender.draw(g);
         app.popStyle();
     }
 
     public void displaySample(PApplet app) {
+        SamplingPoint sample = this.sample;
+        List<SamplingPoint> samples = this.samples;
         if (null == sample)
             return;
         displaySamplingPoint(app, sample);
@@ -220,38 +1150,89 @@ public class DurationAnalysis {
 
 
     public void displayGrid(PApplet app) {
+        // the finished grid, or the partial one before the first finishes
+        AnalysisJob job = finishedGridJob;
+        if (null == job)
+            job = gridJob;
+        if (null == job || job.getRow() == 0 || job.getCol() == 0)
+            return;
+        WB_Point leftBottom = job.getLeftBottom();
+        WB_Point rightTop = job.getRightTop();
+
         app.pushStyle();
         app.rectMode(PConstants.CORNERS);
         app.noFill();
         app.stroke(0xffaa0000);
         app.strokeWeight(3);
         app.rect(leftBottom.xf(), leftBottom.yf(), rightTop.xf(), rightTop.yf());
-        app.rectMode(PConstants.CENTER);
         app.noStroke();
-        for (SamplingPoint[] pointAnalyses : grids) {
-            for (SamplingPoint grid : pointAnalyses) {
-                double d = grid.getDuration();
-                if (d == 0)
-                    app.fill(0x88000000);
-                else if (d < 2)
-                    app.fill(0x88ff0000);
-                else if (d < 4)
-                    app.fill(0x88ffff00);
-                else if (d < 6)
-                    app.fill(0x8800ff00);
-                else if (d < 8)
-                    app.fill(0x8800ffff);
-                else if (d < 10)
-                    app.fill(0x880000ff);
-                else if (d < 12)
-                    app.fill(0x88ff00ff);
-                else
-                    app.noFill();
-                app.rect(grid.getPoint().xf(), grid.getPoint().yf(), gridWidth, gridHeight);
+        GridResult result = job.getResult();
+        if (null == result || (long) job.getRow() * job.getCol() > (long) app.width * app.height) {
+            // one pixel per cell for the raster grids and the cells smaller than a pixel
+            if (job != gridImageJob || job.getDone() != gridImageDone)
+                updateGridImage(app, job);
+            app.image(gridImage, leftBottom.xf(), leftBottom.yf(),
+                    rightTop.xf() - leftBottom.xf(), rightTop.yf() - leftBottom.yf());
+            app.popStyle();
+            return;
+        }
 
-//                displayDuration(app, samples[i][j], durations[i][j]);
+        // the cell geometry from the extent, no point per cell
+        float gridWidth = (float) result.getCellWidth();
+        float gridHeight = (float) result.getCellHeight();
+        app.rectMode(PConstants.CENTER);
+        for (int i = 0; i < job.getRow(); i++) {
+            for (int j = 0; j < job.getCol(); j++) {
+                double d = result.getDuration(i, j);
+                if (Double.isNaN(d))
+                    continue;
+                int color = durationColor(d);
+                if (color == 0)
+                    app.noFill();
+                else
+                    app.fill(color);
+                app.rect((float) result.getCellX(j), (float) result.getCellY(i), gridWidth, gridHeight);
             }
         }
         app.popStyle();
     }
+
+    private void updateGridImage(PApplet app, AnalysisJob job) {
+        int done = job.getDone();
+        if (null == gridImage || gridImage.width != job.getCol() || gridImage.height != job.getRow())
+            gridImage = app.createImage(job.getCol(), job.getRow(), PConstants.ARGB);
+        gridImage.loadPixels();
+        for (int i = 0; i < job.getRow(); i++) {
+            for (int j = 0; j < job.getCol(); j++) {
+                double d = job.getDuration(i, j);
+                gridImage.pixels[i * job.getCol() + j] = Double.isNaN(d) ? 0 : durationColor(d);
+            }
+        }
+        gridImage.updatePixels();
+        gridImageJob = job;
+        gridImageDone = done;
+    }
+
+    /**
+     * @param d duration in HOURS
+     * @return ARGB color, 0 for no fill
+     */
+    private static int durationColor(double d) {
+        if (d == 0)
+            return 0x88000000;
+        else if (d < 2)
+            return 0x88ff0000;
+        else if (d < 4)
+            return 0x88ffff00;
+        else if (d < 6)
+            return 0x8800ff00;
+        else if (d < 8)
+            return 0x8800ffff;
+        else if (d < 10)
+            return 0x880000ff;
+        else if (d < 12)
+            return 0x88ff00ff;
+        else
+            return 0;
+    }
 }
@@ -0,0 +1,73 @@
+package core;
+
+/**
+ * sunlight duration of each sampling point on each date of a batch analysis
+ *
+ * @author Wu
+ * @create 2021-04-29 9:45
+ */
+
+public class DurationTable {
+    private final int[][] dates;
+    private final int pointNum;
+    /**
+     * in HOURS, point-major, one row of dates per point
+     */
+    final double[] durations;
+    private final SunDirections directions;
+
+    DurationTable(int[][] dates, int pointNum, SunDirections directions) {
+        this.dates = dates;
+        this.pointNum = pointNum;
+        this.durations = new double[pointNum * dates.length];
+        this.directions = directions;
+    }
+
+    public int getPointNum() {
+        return pointNum;
+    }
+
+    public int getDateNum() {
+        return dates.length;
+    }
+
+    /**
+     * @param d index of the date
+     * @return {month, day}
+     */
+    public int[] getDate(int d) {
+        return dates[d].clone();
+    }
+
+    /**
+     * @param i index of the point
+     * @param d index of the date
+     * @return double in HOURS
+     */
+    public double getDuration(int i, int d) {
+        return durations[i * dates.length + d];
+    }
+
+    /**
+     * @param i index of the point
+     * @return double[] in HOURS of each date
+     */
+    public double[] getDurations(int i) {
+        double[] row = new double[dates.length];
+        System.arraycopy(durations, i * dates.length, row, 0, dates.length);
+        return row;
+    }
+
+    /**
+     * @return distinct sun directions the points were tested against
+     */
+    public SunDirections getDirections() {
+        return directions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DurationTable {%d points x %d dates, %s}",
+                pointNum, dates.length, directions);
+    }
+}
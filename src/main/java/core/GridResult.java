@@ -0,0 +1,215 @@
+package core;
+
+import wblut.geom.WB_Point;
+
+import java.util.Arrays;
+
+/**
+ * durations of a ground grid in one primitive array, row-major,
+ * the cell geometry implied by the extent and the resolution,
+ * sampling points created only on request
+ *
+ * @author Wu
+ * @create 2021-05-08 9:20
+ */
+
+public class GridResult {
+    /**
+     * NONE - a float per cell
+     * MINUTE - a short per cell, rounded to minutes
+     * TEN_MINUTES - a byte per cell, rounded to 10 minutes
+     */
+    public enum Quantization {NONE, MINUTE, TEN_MINUTES}
+
+    private static final short SHORT_EMPTY = -1;
+    private static final byte BYTE_EMPTY = (byte) 0xFF;
+
+    private final WB_Point leftBottom, rightTop;
+    private final int row, col;
+    private final double cellWidth, cellHeight;
+    private final Quantization quantization;
+    /**
+     * one of them by the quantization, the cells not done yet NaN or all bits set
+     */
+    private final float[] floats;
+    private final short[] shorts;
+    private final byte[] bytes;
+    /**
+     * lit masks of all cells packed, words per cell, null if not kept
+     */
+    private final SunPath maskPath;
+    private final int maskWords;
+    private final long[] masks;
+
+    /**
+     * @param quantization storage of the durations
+     * @param maskPath     sun path of the lit masks to keep, null for none
+     */
+    GridResult(WB_Point leftBottom, WB_Point rightTop, int row, int col,
+               Quantization quantization, SunPath maskPath) {
+        this.leftBottom = leftBottom;
+        this.rightTop = rightTop;
+        this.row = row;
+        this.col = col;
+        this.cellWidth = (rightTop.xd() - leftBottom.xd()) / col;
+        this.cellHeight = (rightTop.yd() - leftBottom.yd()) / row;
+        this.quantization = quantization;
+        int n = row * col;
+        floats = quantization == Quantization.NONE ? new float[n] : null;
+        shorts = quantization == Quantization.MINUTE ? new short[n] : null;
+        bytes = quantization == Quantization.TEN_MINUTES ? new byte[n] : null;
+        if (null != floats)
+            Arrays.fill(floats, Float.NaN);
+        if (null != shorts)
+            Arrays.fill(shorts, SHORT_EMPTY);
+        if (null != bytes)
+            Arrays.fill(bytes, BYTE_EMPTY);
+        this.maskPath = maskPath;
+        this.maskWords = null == maskPath ? 0 : (maskPath.weight.length + 63) >>> 6;
+        this.masks = null == maskPath ? null : new long[n * maskWords];
+    }
+
+    void setDuration(int i, int j, double hours) {
+        int k = i * col + j;
+        switch (quantization) {
+            case NONE:
+                floats[k] = (float) hours;
+                break;
+            case MINUTE:
+                shorts[k] = (short) Math.round(hours * 60);
+                break;
+            case TEN_MINUTES:
+                bytes[k] = (byte) Math.round(hours * 6);
+                break;
+        }
+    }
+
+    /**
+     * @return true if the lit masks are kept
+     */
+    public boolean hasLitMasks() {
+        return null != masks;
+    }
+
+    void setLitMask(int i, int j, LitMask mask) {
+        if (null != masks)
+            System.arraycopy(mask.bits, 0, masks, (i * col + j) * maskWords, maskWords);
+    }
+
+    /*===========================================================================*/
+
+    public WB_Point getLeftBottom() {
+        return leftBottom;
+    }
+
+    public WB_Point getRightTop() {
+        return rightTop;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    public Quantization getQuantization() {
+        return quantization;
+    }
+
+    public double getCellWidth() {
+        return cellWidth;
+    }
+
+    public double getCellHeight() {
+        return cellHeight;
+    }
+
+    /**
+     * @param j column
+     * @return x of the cell center
+     */
+    public double getCellX(int j) {
+        return leftBottom.xd() + (j + 0.5) * cellWidth;
+    }
+
+    /**
+     * @param i row
+     * @return y of the cell center
+     */
+    public double getCellY(int i) {
+        return leftBottom.yd() + (i + 0.5) * cellHeight;
+    }
+
+    /**
+     * @param i row
+     * @param j column
+     * @return false if not done yet
+     */
+    public boolean isDone(int i, int j) {
+        return !Double.isNaN(getDuration(i, j));
+    }
+
+    /**
+     * @param i row
+     * @param j column
+     * @return double in HOURS, NaN if not done yet
+     */
+    public double getDuration(int i, int j) {
+        int k = i * col + j;
+        switch (quantization) {
+            case MINUTE:
+                return shorts[k] == SHORT_EMPTY ? Double.NaN : shorts[k] / 60.;
+            case TEN_MINUTES:
+                return bytes[k] == BYTE_EMPTY ? Double.NaN : (bytes[k] & 0xFF) / 6.;
+            default:
+                return floats[k];
+        }
+    }
+
+    /**
+     * @param i row
+     * @param j column
+     * @return a copy of the lit mask of the cell, null if not kept
+     */
+    public LitMask getLitMask(int i, int j) {
+        if (null == masks)
+            return null;
+        return new LitMask(maskPath, masks, (i * col + j) * maskWords);
+    }
+
+    /**
+     * a sampling point of the cell created on request, for display or further analysis
+     *
+     * @param i row
+     * @param j column
+     * @return SamplingPoint with the duration and the lit mask, null if not done yet
+     */
+    public SamplingPoint getSamplingPoint(int i, int j) {
+        double d = getDuration(i, j);
+        if (Double.isNaN(d))
+            return null;
+        SamplingPoint sp = new SamplingPoint(new WB_Point(getCellX(j), getCellY(i)));
+        sp.setDuration(d);
+        sp.setLitMask(getLitMask(i, j));
+        return sp;
+    }
+
+    /**
+     * memory held by the arrays
+     *
+     * @return long in BYTES
+     */
+    public long getMemory() {
+        long n = (long) row * col;
+        long cell = quantization == Quantization.NONE ? 4 : quantization == Quantization.MINUTE ? 2 : 1;
+        return n * cell + (null == masks ? 0 : (long) masks.length * 8);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GridResult {%d x %d, %s%s, %.2fMB}", row, col, quantization,
+                null == masks ? "" : " with lit masks", getMemory() / 1024. / 1024);
+    }
+}
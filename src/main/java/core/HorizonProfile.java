@@ -0,0 +1,501 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * obstruction elevations seen from a point in each azimuth bin
+ * the sun is lit above the top of its bin and shadowed below the ground-connected part,
+ * so any date, location or time window is a lookup per sun position
+ * only a sun between the two, e.g. under an overhang, needs a ray
+ *
+ * @author Wu
+ * @create 2021-04-28 10:05
+ */
+
+public class HorizonProfile {
+    public static final int DEFAULT_BINS = 360;
+    /**
+     * elevations are kept as slope / (1 + slope), monotonic over [0, 1] without a trigonometric call
+     */
+    private static final double QUANTUM = 65535;
+    /**
+     * tolerance when chaining, the same edge seen from two triangles differing by rounding
+     */
+    private static final double GAP = 1e-9;
+
+    /**
+     * LIT - above every obstruction of the bin
+     * SHADOWED - below the obstruction solid from the horizon
+     * UNKNOWN - in between, to be decided by a ray
+     */
+    public enum Visibility {LIT, SHADOWED, UNKNOWN}
+
+    /**
+     * sine and cosine at the bin boundaries of the last bin count
+     */
+    private static volatile double[] boundaries = new double[0];
+
+    /**
+     * triangles the profile was computed from, to detect a changed scene
+     */
+    private final TriangleStore tris;
+    /**
+     * per bin, quantized levels of the elevation
+     * ground - elevation up to which the obstructions are solid from the horizon
+     * top - elevation above which nothing obstructs
+     */
+    private final char[] ground, top;
+
+    /**
+     * the cross-section of a triangle in a vertical half-plane is a segment between two edges,
+     * in a bin free of its vertices always the same two, so it covers for the whole bin
+     * the interval from its highest low end to its lowest high end,
+     * taken at the two boundaries and at the single extreme of the slope along each edge
+     * the intervals of a bin chained from the horizon give the ground, rounded down,
+     * an interval starting on the edge another one ends on chained at any height
+     * the highest ends, vertices and extremes give the top, rounded up
+     *
+     * @param tris obstruction triangles
+     * @param x    point x
+     * @param y    point y
+     * @param z    point z
+     * @param bins number of azimuth bins
+     */
+    public HorizonProfile(TriangleStore tris, double x, double y, double z, int bins) {
+        if (bins < 1)
+            throw new IllegalArgumentException("Bins must be positive: " + bins);
+        this.tris = tris;
+        double binWidth = Math.PI * 2 / bins;
+        double[] table = getBoundaries(bins);
+
+        // slope interval of the current triangle at each boundary, with the distances of its ends
+        double[] low = new double[bins], high = new double[bins];
+        double[] lowH = new double[bins], highH = new double[bins];
+        Arrays.fill(low, Double.MAX_VALUE);
+        Arrays.fill(high, -Double.MAX_VALUE);
+        int[] touched = new int[bins];
+        // highest slope at each boundary, of a vertex and of an edge extreme inside each bin
+        double[] highest = new double[bins], vertex = new double[bins], peak = new double[bins];
+        Arrays.fill(vertex, Double.NEGATIVE_INFINITY);
+        Arrays.fill(peak, Double.NEGATIVE_INFINITY);
+        // bin, interval and the two edges of every triangle spanning a bin,
+        // an edge as slope and distance at both boundaries
+        int[] keyBin = new int[256];
+        double[] keyLow = new double[256], keyHigh = new double[256];
+        double[] keyLowEdge = new double[256 * 4], keyHighEdge = new double[256 * 4];
+        int keyNum = 0;
+
+        double[] c = new double[9];
+        double[] azimuth = new double[3];
+        int[] vertexBin = new int[3];
+        // bin, slope and effect of the extreme of each edge
+        int[] extremeBin = new int[3];
+        double[] extremeSlope = new double[3];
+        int[] extremeEnd = new int[3];
+        for (int i = 0; i < tris.size(); i++) {
+            boolean above = false;
+            for (int j = 0; j < 3; j++) {
+                c[j * 3] = tris.getCoord(i, j, 0) - x;
+                c[j * 3 + 1] = tris.getCoord(i, j, 1) - y;
+                c[j * 3 + 2] = tris.getCoord(i, j, 2) - z;
+                above |= c[j * 3 + 2] > 0;
+            }
+            if (!above)
+                continue;
+            // a vertex on the vertical of the point spans every bin, the triangle only raises the top
+            boolean onVertical = false;
+            for (int j = 0; j < 3; j++) {
+                double h = Math.sqrt(c[j * 3] * c[j * 3] + c[j * 3 + 1] * c[j * 3 + 1]);
+                azimuth[j] = azimuth(c[j * 3], c[j * 3 + 1]);
+                vertexBin[j] = -1;
+                if (h == 0) {
+                    onVertical = true;
+                    continue;
+                }
+                int b = Math.min((int) (azimuth[j] / binWidth), bins - 1);
+                vertexBin[j] = b;
+                vertex[b] = Math.max(vertex[b], c[j * 3 + 2] / h);
+            }
+            int n = 0;
+            for (int j = 0; j < 3; j++) {
+                int k = (j + 1) % 3;
+                n = scanEdge(c, j * 3, k * 3, azimuth[j], azimuth[k], binWidth, table,
+                        low, high, lowH, highH, touched, n);
+            }
+            // over the point, the other end of each segment is on its vertical
+            double zenith = heightAbove(c);
+            if (!Double.isNaN(zenith)) {
+                for (int t = 0; t < n; t++) {
+                    int s = touched[t];
+                    if (zenith > 0) {
+                        high[s] = Double.MAX_VALUE;
+                        highH[s] = Double.NaN;
+                    } else if (low[s] > 0) {
+                        low[s] = 0;
+                        lowH[s] = Double.NaN;
+                    }
+                }
+            }
+            for (int j = 0; j < 3; j++) {
+                extremeBin[j] = extreme(c, j, zenith, binWidth, bins, extremeSlope, extremeEnd);
+                if (extremeBin[j] >= 0)
+                    peak[extremeBin[j]] = Math.max(peak[extremeBin[j]], extremeSlope[j]);
+            }
+
+            if (keyNum + n > keyBin.length) {
+                int capacity = Math.max(keyBin.length * 2, keyNum + n);
+                keyBin = Arrays.copyOf(keyBin, capacity);
+                keyLow = Arrays.copyOf(keyLow, capacity);
+                keyHigh = Arrays.copyOf(keyHigh, capacity);
+                keyLowEdge = Arrays.copyOf(keyLowEdge, capacity * 4);
+                keyHighEdge = Arrays.copyOf(keyHighEdge, capacity * 4);
+            }
+            for (int t = 0; t < n; t++) {
+                int s = touched[t], next = (s + 1) % bins;
+                highest[s] = Math.max(highest[s], high[s]);
+                // a bin of half a turn or more is not spanned by two edges
+                if (onVertical || bins < 3 || low[next] == Double.MAX_VALUE
+                        || vertexBin[0] == s || vertexBin[1] == s || vertexBin[2] == s)
+                    continue;
+                double lo = Math.max(low[s], low[next]), hi = Math.min(high[s], high[next]);
+                for (int j = 0; j < 3; j++) {
+                    if (extremeBin[j] != s)
+                        continue;
+                    if (extremeEnd[j] > 0)
+                        lo = Math.max(lo, extremeSlope[j]);
+                    else if (extremeEnd[j] < 0)
+                        hi = Math.min(hi, extremeSlope[j]);
+                }
+                if (lo > hi)
+                    continue;
+                keyBin[keyNum] = s;
+                keyLow[keyNum] = lo;
+                keyHigh[keyNum] = hi;
+                setEdge(keyLowEdge, keyNum, low[s], lowH[s], low[next], lowH[next]);
+                setEdge(keyHighEdge, keyNum++, high[s], highH[s], high[next], highH[next]);
+            }
+            for (int t = 0; t < n; t++) {
+                low[touched[t]] = Double.MAX_VALUE;
+                high[touched[t]] = -Double.MAX_VALUE;
+            }
+        }
+
+        // grouped by bin
+        int[] start = new int[bins + 1];
+        for (int k = 0; k < keyNum; k++)
+            start[keyBin[k] + 1]++;
+        for (int b = 0; b < bins; b++)
+            start[b + 1] += start[b];
+        int[] order = new int[keyNum];
+        int[] fill = Arrays.copyOf(start, bins);
+        for (int k = 0; k < keyNum; k++)
+            order[fill[keyBin[k]]++] = k;
+
+        ground = new char[bins];
+        top = new char[bins];
+        boolean[] chained = new boolean[keyNum];
+        for (int b = 0; b < bins; b++) {
+            // a few intervals, sorted by low so most join in the first pass
+            for (int m = start[b] + 1; m < start[b + 1]; m++) {
+                int k = order[m], o = m - 1;
+                for (; o >= start[b] && keyLow[order[o]] > keyLow[k]; o--)
+                    order[o + 1] = order[o];
+                order[o + 1] = k;
+            }
+            // chained from the horizon until nothing joins, below the reach or on a chained edge
+            double reach = 0;
+            for (boolean joined = true; joined; ) {
+                joined = false;
+                for (int m = start[b]; m < start[b + 1]; m++) {
+                    int k = order[m];
+                    if (chained[k])
+                        continue;
+                    boolean join = keyLow[k] <= reach + GAP;
+                    for (int o = start[b]; !join && o < start[b + 1]; o++)
+                        join = chained[order[o]] && sameEdge(keyLowEdge, k, keyHighEdge, order[o]);
+                    if (join) {
+                        chained[k] = true;
+                        reach = Math.max(reach, keyHigh[k]);
+                        joined = true;
+                    }
+                }
+            }
+            int next = (b + 1) % bins;
+            ground[b] = (char) quantizeDown(reach);
+            top[b] = (char) quantizeUp(Math.max(Math.max(highest[b], highest[next]),
+                    Math.max(vertex[b], peak[b])));
+        }
+    }
+
+    /**
+     * widen the slope intervals at the boundaries within the azimuth arc of an edge
+     *
+     * @return number of touched boundaries
+     */
+    private static int scanEdge(double[] c, int a, int b, double t0, double t1,
+                                double binWidth, double[] table,
+                                double[] low, double[] high, double[] lowH, double[] highH,
+                                int[] touched, int n) {
+        double ax = c[a], ay = c[a + 1], az = c[a + 2];
+        double ex = c[b] - ax, ey = c[b + 1] - ay, ez = c[b + 2] - az;
+        // the shorter arc between the ends
+        double span = t1 - t0;
+        if (span > Math.PI)
+            span -= Math.PI * 2;
+        else if (span < -Math.PI)
+            span += Math.PI * 2;
+        double from = span >= 0 ? t0 : t0 + span;
+        double to = from + Math.abs(span);
+        int bins = low.length;
+        int first = (int) Math.ceil(from / binWidth);
+        int last = (int) Math.floor(to / binWidth);
+        for (int i = first; i <= last; i++) {
+            int s = ((i % bins) + bins) % bins;
+            double ux = table[s * 2], uy = table[s * 2 + 1];
+            double den = ux * ey - uy * ex;
+            if (den == 0)
+                continue;
+            double t = -(ux * ay - uy * ax) / den;
+            t = Math.max(0, Math.min(1, t));
+            double qx = ax + ex * t, qy = ay + ey * t, qz = az + ez * t;
+            // on the ray of the boundary, the distance is the projection
+            double h = qx * ux + qy * uy;
+            if (h < 0)
+                continue;
+            double slope = h > 0 ? qz / h : qz > 0 ? Double.MAX_VALUE : 0;
+            if (low[s] == Double.MAX_VALUE)
+                touched[n++] = s;
+            if (slope < low[s]) {
+                low[s] = slope;
+                lowH[s] = h;
+            }
+            if (slope > high[s]) {
+                high[s] = slope;
+                highH[s] = h;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * the single extreme of the slope along edge j, where the derivative of z / h vanishes,
+     * h the horizontal distance, linear in the edge parameter t
+     * a maximum on the low end of the segment raises the interval of its bin,
+     * a minimum on the high end lowers it, 0 for neither
+     *
+     * @return bin of the extreme, -1 if none inside the edge
+     */
+    private static int extreme(double[] c, int j, double zenith, double binWidth, int bins,
+                               double[] slopes, int[] ends) {
+        int a = j * 3, b = (j + 1) % 3 * 3;
+        double ax = c[a], ay = c[a + 1], az = c[a + 2];
+        double ex = c[b] - ax, ey = c[b + 1] - ay, ez = c[b + 2] - az;
+        double sq = ex * ex + ey * ey, dot = ax * ex + ay * ey, len = ax * ax + ay * ay;
+        double den = ez * dot - az * sq;
+        if (den == 0)
+            return -1;
+        double t = (az * dot - ez * len) / den;
+        if (!(t > 0 && t < 1))
+            return -1;
+        double qx = ax + ex * t, qy = ay + ey * t, qz = az + ez * t;
+        double h = Math.sqrt(qx * qx + qy * qy);
+        double ha = Math.sqrt(len), hb = Math.sqrt(c[b] * c[b] + c[b + 1] * c[b + 1]);
+        if (h == 0 || ha == 0 || hb == 0)
+            return -1;
+        double slope = qz / h;
+        boolean max = slope > Math.min(az / ha, c[b + 2] / hb);
+        // the other end of the segment, on another edge or on the vertical over or under the point
+        boolean lowEnd = true, highEnd = true;
+        if (!Double.isNaN(zenith)) {
+            lowEnd = zenith > 0;
+            highEnd = !lowEnd;
+        }
+        for (int k = 1; k < 3; k++) {
+            double other = slopeAt(c, (j + k) % 3, qx / h, qy / h);
+            if (Double.isNaN(other))
+                continue;
+            lowEnd &= slope <= other;
+            highEnd &= slope >= other;
+        }
+        slopes[j] = slope;
+        ends[j] = max ? lowEnd ? 1 : 0 : highEnd ? -1 : 0;
+        return Math.min((int) (azimuth(qx, qy) / binWidth), bins - 1);
+    }
+
+    /**
+     * @return slope of edge j along a horizontal direction, NaN if missed
+     */
+    private static double slopeAt(double[] c, int j, double ux, double uy) {
+        int a = j * 3, b = (j + 1) % 3 * 3;
+        double ax = c[a], ay = c[a + 1];
+        double ex = c[b] - ax, ey = c[b + 1] - ay;
+        double den = ux * ey - uy * ex;
+        if (den == 0)
+            return Double.NaN;
+        double t = -(ux * ay - uy * ax) / den;
+        if (!(t >= 0 && t <= 1))
+            return Double.NaN;
+        double h = (ax + ex * t) * ux + (ay + ey * t) * uy;
+        return h > 0 ? (c[a + 2] + (c[b + 2] - c[a + 2]) * t) / h : Double.NaN;
+    }
+
+    private static void setEdge(double[] edges, int k, double slope0, double h0, double slope1, double h1) {
+        edges[k * 4] = slope0;
+        edges[k * 4 + 1] = h0;
+        edges[k * 4 + 2] = slope1;
+        edges[k * 4 + 3] = h1;
+    }
+
+    /**
+     * the same points at both boundaries, so the same edge over the bin
+     */
+    private static boolean sameEdge(double[] edges, int k, double[] others, int o) {
+        for (int i = 0; i < 2; i++) {
+            double h = edges[k * 4 + i * 2 + 1], oh = others[o * 4 + i * 2 + 1];
+            double dz = edges[k * 4 + i * 2] * h - others[o * 4 + i * 2] * oh;
+            if (!(Math.abs(h - oh) + Math.abs(dz) <= GAP * (1 + h)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * height of the triangle plane at the point if its footprint contains the point
+     *
+     * @return relative height, NaN if outside or vertical
+     */
+    private static double heightAbove(double[] c) {
+        double area = (c[3] - c[0]) * (c[7] - c[1]) - (c[6] - c[0]) * (c[4] - c[1]);
+        if (area == 0)
+            return Double.NaN;
+        double b0 = (c[3] * c[7] - c[6] * c[4]) / area;
+        double b1 = (c[6] * c[1] - c[0] * c[7]) / area;
+        double b2 = 1 - b0 - b1;
+        if (b0 < 0 || b1 < 0 || b2 < 0)
+            return Double.NaN;
+        return b0 * c[2] + b1 * c[5] + b2 * c[8];
+    }
+
+    private static double[] getBoundaries(int bins) {
+        double[] table = boundaries;
+        if (table.length == bins * 2)
+            return table;
+        table = new double[bins * 2];
+        for (int s = 0; s < bins; s++) {
+            double theta = Math.PI * 2 * s / bins;
+            table[s * 2] = Math.sin(theta);
+            table[s * 2 + 1] = Math.cos(theta);
+        }
+        boundaries = table;
+        return table;
+    }
+
+    /**
+     * slope to level, below the horizon as 0, rounded down for a lower bound
+     */
+    private static int quantizeDown(double slope) {
+        return slope <= 0 ? 0 : (int) Math.floor(slope / (1 + slope) * QUANTUM);
+    }
+
+    /**
+     * slope to level, below the horizon as 0, rounded up for an upper bound
+     */
+    private static int quantizeUp(double slope) {
+        return slope <= 0 ? 0 : (int) Math.min(QUANTUM, Math.ceil(slope / (1 + slope) * QUANTUM));
+    }
+
+    private static double toElevation(int level) {
+        double f = level / QUANTUM;
+        return Math.atan2(f, 1 - f);
+    }
+
+    private static double azimuth(double dx, double dy) {
+        double a = Math.atan2(dx, dy);
+        return a < 0 ? a + Math.PI * 2 : a;
+    }
+
+    /**
+     * @return true if computed from the given triangles
+     */
+    public boolean isValid(TriangleStore tris) {
+        return this.tris == tris;
+    }
+
+    public int getBins() {
+        return top.length;
+    }
+
+    /**
+     * @param bin index of the azimuth bin
+     * @return elevation in RADIANS up to which the bin is solid
+     */
+    public double getGroundElevation(int bin) {
+        return toElevation(ground[bin]);
+    }
+
+    /**
+     * @param bin index of the azimuth bin
+     * @return elevation in RADIANS of the highest obstruction in the bin
+     */
+    public double getTopElevation(int bin) {
+        return toElevation(top[bin]);
+    }
+
+    /**
+     * compare a sun direction against the profile of its bin
+     *
+     * @param dx direction to the sun x
+     * @param dy direction to the sun y
+     * @param dz direction to the sun z
+     * @return Visibility
+     */
+    public Visibility classify(double dx, double dy, double dz) {
+        return classify(getBin(dx, dy, top.length), getLevel(dx, dy, dz));
+    }
+
+    /**
+     * compare a sun position prepared by getBin and getLevel, shared by the profiles of the same bins
+     *
+     * @param bin   azimuth bin of the sun
+     * @param level elevation level of the sun
+     * @return Visibility
+     */
+    public Visibility classify(int bin, double level) {
+        if (level > top[bin])
+            return Visibility.LIT;
+        if (level < ground[bin])
+            return Visibility.SHADOWED;
+        return Visibility.UNKNOWN;
+    }
+
+    /**
+     * @param dx   direction to the sun x
+     * @param dy   direction to the sun y
+     * @param bins number of azimuth bins
+     * @return index of the azimuth bin
+     */
+    public static int getBin(double dx, double dy, int bins) {
+        int b = (int) (azimuth(dx, dy) / (Math.PI * 2) * bins);
+        return b >= bins ? bins - 1 : b;
+    }
+
+    /**
+     * @param dx direction to the sun x
+     * @param dy direction to the sun y
+     * @param dz direction to the sun z
+     * @return elevation level of the sun, unrounded
+     */
+    public static double getLevel(double dx, double dy, double dz) {
+        double h = Math.sqrt(dx * dx + dy * dy);
+        return h + dz == 0 ? 0 : dz / (h + dz) * QUANTUM;
+    }
+
+    /**
+     * memory held by the profile
+     *
+     * @return long in BYTES
+     */
+    public long getMemory() {
+        return (long) top.length * 2 * 2;
+    }
+}
@@ -0,0 +1,61 @@
+package core;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * runs the submitted tasks one at a time on the analysis executor,
+ * a task still waiting is replaced by a newer one (latest wins)
+ *
+ * @author Wu
+ * @create 2021-04-20 10:26
+ */
+
+public class LatestTaskRunner {
+    private final AnalysisExecutor executor;
+    private final AtomicReference<Runnable> latest = new AtomicReference<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public LatestTaskRunner(AnalysisExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * queue a task in place of the waiting one, never blocks
+     *
+     * @param task task
+     */
+    public void submit(Runnable task) {
+        latest.set(task);
+        schedule();
+    }
+
+    /**
+     * @return true if a task is running or waiting
+     */
+    public boolean isBusy() {
+        return running.get() || null != latest.get();
+    }
+
+    private void schedule() {
+        if (null != latest.get() && running.compareAndSet(false, true))
+            executor.getPool().execute(this::drain);
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while (null != (task = latest.getAndSet(null))) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            running.set(false);
+        }
+        // a task submitted after the last check
+        schedule();
+    }
+}
@@ -0,0 +1,220 @@
+package core;
+
+/**
+ * lit state of a point at each step of a sun path, a bit per step
+ * step i stands for the i-th of the equal parts of sunrise to sunset its sample falls in,
+ * so durations of other windows or continuity rules are read without new rays
+ * its duration is that of whole steps, it may differ from the duration of the analysis,
+ * which ADAPTIVE bisects between the steps and SHADOW_MAP sums from lit fractions
+ * the mask sets at 0.5
+ *
+ * @author Wu
+ * @create 2021-05-07 9:40
+ */
+
+public class LitMask {
+    /**
+     * bit i of word i / 64 for step i, copied into the packed masks of a grid
+     */
+    final long[] bits;
+    private final int stepNum;
+    /**
+     * sunrise and the length of a step in HOURS
+     */
+    private final double start, stepHours;
+
+    /**
+     * every step shadowed
+     *
+     * @param sunPath sun path the steps belong to
+     */
+    LitMask(SunPath sunPath) {
+        this.stepNum = sunPath.weight.length;
+        this.bits = new long[(stepNum + 63) >>> 6];
+        this.start = sunPath.getSunrise();
+        this.stepHours = stepNum == 0 ? 0 : sunPath.weight[0];
+    }
+
+    /**
+     * copy of a mask packed at an offset
+     *
+     * @param sunPath sun path the steps belong to
+     * @param packed  masks of several points
+     * @param offset  first word of the mask
+     */
+    LitMask(SunPath sunPath, long[] packed, int offset) {
+        this(sunPath);
+        System.arraycopy(packed, offset, bits, 0, bits.length);
+    }
+
+    void setLit(int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    public boolean isLit(int i) {
+        return (bits[i >>> 6] & 1L << i) != 0;
+    }
+
+    public int getStepNum() {
+        return stepNum;
+    }
+
+    /**
+     * @param i index of the step
+     * @return start of the step in HOURS
+     */
+    public double getStepStart(int i) {
+        return start + i * stepHours;
+    }
+
+    /**
+     * @return sunlight duration in HOURS of the whole day
+     */
+    public double getDuration() {
+        return count(0, stepNum) * stepHours;
+    }
+
+    /**
+     * lit time within a window, the steps at its ends counted in part
+     *
+     * @param from start of the window in HOURS
+     * @param to   end of the window in HOURS
+     * @return double in HOURS
+     */
+    public double getDuration(double from, double to) {
+        int first = firstStep(from), end = endStep(to);
+        if (first >= end)
+            return 0;
+        double duration = count(first, end) * stepHours;
+        if (isLit(first))
+            duration -= Math.max(0, from - getStepStart(first));
+        if (isLit(end - 1))
+            duration -= Math.max(0, getStepStart(end) - to);
+        return Math.max(0, duration);
+    }
+
+    /**
+     * @return longest continuous lit time in HOURS of the whole day
+     */
+    public double getLongestRun() {
+        return getLongestRun(start, start + stepNum * stepHours);
+    }
+
+    /**
+     * longest continuous lit time within a window
+     *
+     * @param from start of the window in HOURS
+     * @param to   end of the window in HOURS
+     * @return double in HOURS
+     */
+    public double getLongestRun(double from, double to) {
+        int end = endStep(to);
+        double longest = 0;
+        for (int i = nextLit(firstStep(from)); i < end; ) {
+            int j = Math.min(nextShadowed(i), end);
+            double s = Math.max(from, getStepStart(i)), e = Math.min(to, getStepStart(j));
+            longest = Math.max(longest, e - s);
+            i = nextLit(j);
+        }
+        return longest;
+    }
+
+    /**
+     * @return start in HOURS of the first lit step, NaN if never lit
+     */
+    public double getFirstSun() {
+        int i = nextLit(0);
+        return i < stepNum ? getStepStart(i) : Double.NaN;
+    }
+
+    /**
+     * @return end in HOURS of the last lit step, NaN if never lit
+     */
+    public double getLastSun() {
+        for (int w = bits.length - 1; w >= 0; w--)
+            if (bits[w] != 0)
+                return getStepStart((w << 6) + 64 - Long.numberOfLeadingZeros(bits[w]));
+        return Double.NaN;
+    }
+
+    /**
+     * first step overlapping a time
+     */
+    private int firstStep(double hours) {
+        if (stepHours == 0)
+            return 0;
+        return (int) Math.max(0, Math.min(stepNum, Math.floor((hours - start) / stepHours)));
+    }
+
+    /**
+     * step after the last one overlapping a time
+     */
+    private int endStep(double hours) {
+        if (stepHours == 0)
+            return 0;
+        return (int) Math.max(0, Math.min(stepNum, Math.ceil((hours - start) / stepHours)));
+    }
+
+    /**
+     * lit steps in [from, to)
+     */
+    private int count(int from, int to) {
+        if (from >= to)
+            return 0;
+        int w0 = from >>> 6, w1 = (to - 1) >>> 6;
+        long head = -1L << from, tail = -1L >>> -to;
+        if (w0 == w1)
+            return Long.bitCount(bits[w0] & head & tail);
+        int n = Long.bitCount(bits[w0] & head) + Long.bitCount(bits[w1] & tail);
+        for (int w = w0 + 1; w < w1; w++)
+            n += Long.bitCount(bits[w]);
+        return n;
+    }
+
+    /**
+     * @return first lit step from i, stepNum if none
+     */
+    private int nextLit(int i) {
+        if (i >= stepNum)
+            return stepNum;
+        int w = i >>> 6;
+        long word = bits[w] & -1L << i;
+        while (word == 0) {
+            if (++w == bits.length)
+                return stepNum;
+            word = bits[w];
+        }
+        return Math.min(stepNum, (w << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    /**
+     * @return first shadowed step from i, stepNum if none
+     */
+    private int nextShadowed(int i) {
+        if (i >= stepNum)
+            return stepNum;
+        int w = i >>> 6;
+        long word = ~bits[w] & -1L << i;
+        while (word == 0) {
+            if (++w == bits.length)
+                return stepNum;
+            word = ~bits[w];
+        }
+        return Math.min(stepNum, (w << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    /**
+     * memory held by the bits
+     *
+     * @return long in BYTES
+     */
+    public long getMemory() {
+        return (long) bits.length * 8;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LitMask {%d steps, %d lit, %.2f hours}",
+                stepNum, count(0, stepNum), getDuration());
+    }
+}
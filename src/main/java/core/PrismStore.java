@@ -0,0 +1,282 @@
+package core;
+
+import wblut.geom.WB_Coord;
+import wblut.geom.WB_Polygon;
+import wblut.geom.WB_Vector;
+
+import java.util.List;
+
+/**
+ * packed vertical prisms of the buildings extruded from a base polygon
+ * footprint edges of all contours, the bottom and top heights and the bounds
+ *
+ * @author Wu
+ * @create 2021-04-27 9:12
+ */
+
+public class PrismStore {
+    private static final double EPSILON = 1e-9;
+
+    private int size;
+    /**
+     * edges of prism i in [edgeStart[i], edgeStart[i + 1]),
+     * read by the analytic shadow of ground points
+     */
+    final int[] edgeStart;
+    final double[] ax, ay, bx, by;
+    final double[] z0, z1;
+    /**
+     * 6 doubles per prism: minX, minY, minZ, maxX, maxY, maxZ
+     */
+    private final double[] bounds;
+    private final int[] building;
+
+    private PrismStore(int capacity, int edgeCapacity) {
+        edgeStart = new int[capacity + 1];
+        ax = new double[edgeCapacity];
+        ay = new double[edgeCapacity];
+        bx = new double[edgeCapacity];
+        by = new double[edgeCapacity];
+        z0 = new double[capacity];
+        z1 = new double[capacity];
+        bounds = new double[capacity * 6];
+        building = new int[capacity];
+    }
+
+    /**
+     * pack the buildings with a base polygon, the id being the index of each building
+     *
+     * @param buildings buildings
+     */
+    public PrismStore(List<Building> buildings) {
+        this(countPrisms(buildings), countEdges(buildings));
+        for (int id = 0; id < buildings.size(); id++) {
+            Building b = buildings.get(id);
+            if (b.isPrism())
+                add(b.getBase(), b.getHeight(), id);
+        }
+    }
+
+    private static int countPrisms(List<Building> buildings) {
+        int n = 0;
+        for (Building b : buildings)
+            if (b.isPrism())
+                n++;
+        return n;
+    }
+
+    private static int countEdges(List<Building> buildings) {
+        int n = 0;
+        for (Building b : buildings)
+            if (b.isPrism())
+                n += b.getBase().getNumberOfPoints();
+        return n;
+    }
+
+    /**
+     * edges of each contour of the base, extruded upward from the base height
+     */
+    private void add(WB_Polygon base, double height, int id) {
+        WB_Coord[] points = base.getPoints().toArray();
+        int[] ptsPerContour = base.getNumberOfPointsPerContour();
+        int i = size++;
+        int e = edgeStart[i];
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        int start = 0;
+        for (int count : ptsPerContour) {
+            for (int k = 0; k < count; k++) {
+                WB_Coord p = points[start + k];
+                WB_Coord q = points[start + (k + 1) % count];
+                ax[e] = p.xd();
+                ay[e] = p.yd();
+                bx[e] = q.xd();
+                by[e] = q.yd();
+                e++;
+                minX = Math.min(minX, p.xd());
+                minY = Math.min(minY, p.yd());
+                maxX = Math.max(maxX, p.xd());
+                maxY = Math.max(maxY, p.yd());
+            }
+            start += count;
+        }
+        edgeStart[i + 1] = e;
+        double z = points.length > 0 ? points[0].zd() : 0;
+        z0[i] = Math.min(z, z + height);
+        z1[i] = Math.max(z, z + height);
+        setBounds(i, minX, minY, z0[i], maxX, maxY, z1[i]);
+        building[i] = id;
+    }
+
+    private void setBounds(int i, double minX, double minY, double minZ,
+                           double maxX, double maxY, double maxZ) {
+        bounds[i * 6] = minX;
+        bounds[i * 6 + 1] = minY;
+        bounds[i * 6 + 2] = minZ;
+        bounds[i * 6 + 3] = maxX;
+        bounds[i * 6 + 4] = maxY;
+        bounds[i * 6 + 5] = maxZ;
+    }
+
+    /**
+     * a copy in the given order
+     *
+     * @param order indices of the prisms
+     * @return PrismStore
+     */
+    public PrismStore permute(int[] order) {
+        int edgeNum = 0;
+        for (int i : order)
+            edgeNum += edgeStart[i + 1] - edgeStart[i];
+        PrismStore store = new PrismStore(order.length, edgeNum);
+        for (int i : order) {
+            int j = store.size++;
+            int e = store.edgeStart[j];
+            for (int k = edgeStart[i]; k < edgeStart[i + 1]; k++, e++) {
+                store.ax[e] = ax[k];
+                store.ay[e] = ay[k];
+                store.bx[e] = bx[k];
+                store.by[e] = by[k];
+            }
+            store.edgeStart[j + 1] = e;
+            store.z0[j] = z0[i];
+            store.z1[j] = z1[i];
+            System.arraycopy(bounds, i * 6, store.bounds, j * 6, 6);
+            store.building[j] = building[i];
+        }
+        return store;
+    }
+
+    /*===========================================================================*/
+
+    public int size() {
+        return size;
+    }
+
+    public int getBuilding(int i) {
+        return building[i];
+    }
+
+    /**
+     * @param i index of the prism
+     * @param k 0 - 2 min x, y, z, 3 - 5 max x, y, z
+     * @return double
+     */
+    public double getBound(int i, int k) {
+        return bounds[i * 6 + k];
+    }
+
+    /**
+     * even-odd test of a point against all contours of the base
+     */
+    boolean contains(int i, double x, double y) {
+        boolean inside = false;
+        for (int e = edgeStart[i]; e < edgeStart[i + 1]; e++) {
+            if ((ay[e] > y) != (by[e] > y)
+                    && x < ax[e] + (y - ay[e]) * (bx[e] - ax[e]) / (by[e] - ay[e]))
+                inside = !inside;
+        }
+        return inside;
+    }
+
+    /**
+     * ray-prism intersection, a slab test on the bounds
+     * then the segment of the ray inside the bounds against the base
+     *
+     * @param i index of the prism
+     * @return ray parameter t of the entry, -1 if missed
+     */
+    public double intersect(int i, double ox, double oy, double oz,
+                            double dx, double dy, double dz) {
+        int b = i * 6;
+        double near = 0, far = Double.MAX_VALUE;
+        for (int k = 0; k < 3; k++) {
+            double o = k == 0 ? ox : k == 1 ? oy : oz;
+            double d = k == 0 ? dx : k == 1 ? dy : dz;
+            if (Math.abs(d) < EPSILON) {
+                if (o < bounds[b + k] || o > bounds[b + k + 3])
+                    return -1;
+                continue;
+            }
+            double t0 = (bounds[b + k] - o) / d;
+            double t1 = (bounds[b + k + 3] - o) / d;
+            near = Math.max(near, Math.min(t0, t1));
+            far = Math.min(far, Math.max(t0, t1));
+            if (near > far)
+                return -1;
+        }
+
+        // the ray stays within the height range in [near, far]
+        double px = ox + dx * near, py = oy + dy * near;
+        if (contains(i, px, py))
+            return near;
+        double ux = dx * (far - near), uy = dy * (far - near);
+        if (Math.abs(ux) < EPSILON && Math.abs(uy) < EPSILON)
+            return -1;
+        // first footprint edge crossed by the segment
+        double s = Double.MAX_VALUE;
+        for (int e = edgeStart[i]; e < edgeStart[i + 1]; e++) {
+            double ex = bx[e] - ax[e], ey = by[e] - ay[e];
+            double den = ux * ey - uy * ex;
+            if (den == 0)
+                continue;
+            double wx = ax[e] - px, wy = ay[e] - py;
+            double se = (wx * ey - wy * ex) / den;
+            double te = (wx * uy - wy * ux) / den;
+            if (se >= 0 && se <= 1 && te >= 0 && te <= 1 && se < s)
+                s = se;
+        }
+        return s == Double.MAX_VALUE ? -1 : near + s * (far - near);
+    }
+
+    /**
+     * outward normal of the face through a point on the prism
+     *
+     * @param i index of the prism
+     * @return WB_Vector
+     */
+    public WB_Vector getNormal(int i, double x, double y, double z) {
+        double h = Math.max(z1[i] - z0[i], 1);
+        if (Math.abs(z - z1[i]) < h * 1e-6)
+            return new WB_Vector(0, 0, 1);
+        if (Math.abs(z - z0[i]) < h * 1e-6)
+            return new WB_Vector(0, 0, -1);
+        // the nearest footprint edge
+        int nearest = edgeStart[i];
+        double min = Double.MAX_VALUE;
+        for (int e = edgeStart[i]; e < edgeStart[i + 1]; e++) {
+            double ex = bx[e] - ax[e], ey = by[e] - ay[e];
+            double len = ex * ex + ey * ey;
+            double t = len > 0 ? ((x - ax[e]) * ex + (y - ay[e]) * ey) / len : 0;
+            t = Math.max(0, Math.min(1, t));
+            double qx = ax[e] + ex * t - x, qy = ay[e] + ey * t - y;
+            double dist = qx * qx + qy * qy;
+            if (dist < min) {
+                min = dist;
+                nearest = e;
+            }
+        }
+        double ex = bx[nearest] - ax[nearest], ey = by[nearest] - ay[nearest];
+        double len = Math.sqrt(ex * ex + ey * ey);
+        if (len == 0)
+            return new WB_Vector(0, 0, 1);
+        double nx = ey / len, ny = -ex / len;
+        // pointing out of the base
+        double mx = (ax[nearest] + bx[nearest]) * 0.5, my = (ay[nearest] + by[nearest]) * 0.5;
+        double step = len * 1e-3;
+        if (contains(i, mx + nx * step, my + ny * step)) {
+            nx = -nx;
+            ny = -ny;
+        }
+        return new WB_Vector(nx, ny, 0);
+    }
+
+    /**
+     * memory held by the arrays
+     *
+     * @return long in BYTES
+     */
+    public long getMemory() {
+        return (long) ax.length * 4 * 8 + (long) z0.length * (2 * 8 + 6 * 8 + 4 + 4);
+    }
+}
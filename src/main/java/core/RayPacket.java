@@ -0,0 +1,115 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * rays from a tile of sampling points toward one sun direction, traced together
+ * boxes are culled against the tile swept along the direction
+ *
+ * @author Wu
+ * @create 2021-04-26 9:30
+ */
+
+public class RayPacket {
+    final double[] ox, oy, oz;
+    final boolean[] hit;
+    private int size;
+    private int hitNum;
+
+    double dx, dy, dz;
+    /**
+     * origins projected along the direction onto the plane z = minZ
+     */
+    private double kx, ky;
+    private double minX, maxX, minY, maxY, minZ;
+
+    public RayPacket(int capacity) {
+        ox = new double[capacity];
+        oy = new double[capacity];
+        oz = new double[capacity];
+        hit = new boolean[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(double x, double y, double z) {
+        ox[size] = x;
+        oy[size] = y;
+        oz[size] = z;
+        size++;
+    }
+
+    /**
+     * set the direction of all rays and reset the hits
+     *
+     * @param dx direction x
+     * @param dy direction y
+     * @param dz direction z, positive for the sun above the horizon
+     */
+    public void setDirection(double dx, double dy, double dz) {
+        this.dx = dx;
+        this.dy = dy;
+        this.dz = dz;
+        Arrays.fill(hit, 0, size, false);
+        hitNum = 0;
+
+        minZ = Double.MAX_VALUE;
+        for (int r = 0; r < size; r++)
+            minZ = Math.min(minZ, oz[r]);
+        kx = dz > 0 ? dx / dz : 0;
+        ky = dz > 0 ? dy / dz : 0;
+        minX = minY = Double.MAX_VALUE;
+        maxX = maxY = -Double.MAX_VALUE;
+        for (int r = 0; r < size; r++) {
+            double x = ox[r] - kx * (oz[r] - minZ);
+            double y = oy[r] - ky * (oz[r] - minZ);
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+    }
+
+    /**
+     * conservative test of a box against the swept tile,
+     * the part of the box above the lowest origin projected onto its plane
+     *
+     * @param box minX, minY, minZ, maxX, maxY, maxZ
+     * @param i   offset of the box
+     * @return false if no ray can hit the box
+     */
+    public boolean mayHit(double[] box, int i) {
+        if (dz <= 0)
+            return true;
+        double z0 = Math.max(box[i + 2], minZ) - minZ;
+        double z1 = box[i + 5] - minZ;
+        if (z1 < 0)
+            return false;
+        double sx0 = -kx * z0, sx1 = -kx * z1;
+        double sy0 = -ky * z0, sy1 = -ky * z1;
+        return box[i] + Math.min(sx0, sx1) <= maxX && box[i + 3] + Math.max(sx0, sx1) >= minX
+                && box[i + 1] + Math.min(sy0, sy1) <= maxY && box[i + 4] + Math.max(sy0, sy1) >= minY;
+    }
+
+    void setHit(int r) {
+        hit[r] = true;
+        hitNum++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isHit(int r) {
+        return hit[r];
+    }
+
+    /**
+     * @return true if every ray hits
+     */
+    public boolean isDone() {
+        return hitNum == size;
+    }
+}
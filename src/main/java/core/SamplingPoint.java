@@ -12,6 +12,10 @@ import wblut.geom.WB_Vector;
  */
 
 public class SamplingPoint {
+    /**
+     * distance of the analysed point above its plane
+     */
+    public static final double OFFSET = 1;
 
     private WB_Point point;
     private WB_Coord normal;
@@ -19,6 +23,8 @@ public class SamplingPoint {
     private WB_Vector axis;
     private float angle;
     private double duration; // in HOURS
+    private HorizonProfile horizon;
+    private LitMask litMask;
 
     public SamplingPoint(WB_Point point) {
         this(point, WB_Vector.Z());
@@ -40,7 +46,7 @@ public class SamplingPoint {
         this.normal = normal;
         axis = WB_Vector.cross(normal, WB_Vector.Z());
         angle = (float) WB_Vector.getAngle(axis, WB_Vector.Z());
-        pointAbovePlane = point.add(WB_Vector.mul(normal, 1));
+        pointAbovePlane = point.add(WB_Vector.mul(normal, OFFSET));
     }
 
     public void setDuration(double d) {
@@ -66,4 +72,32 @@ public class SamplingPoint {
     public double getDuration() {
         return duration;
     }
+
+    /**
+     * @param horizon precomputed horizon profile, null to trace rays
+     */
+    public void setHorizon(HorizonProfile horizon) {
+        this.horizon = horizon;
+    }
+
+    public HorizonProfile getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * @param litMask lit state at each step of the last analysis, null if the method has no steps
+     */
+    public void setLitMask(LitMask litMask) {
+        this.litMask = litMask;
+    }
+
+    /**
+     * the duration of the mask counts whole steps, not always the duration of the point,
+     * which ADAPTIVE refines by bisection and SHADOW_MAP sums from partly lit steps
+     *
+     * @return lit state at each step of the last analysis, null if the method has no steps
+     */
+    public LitMask getLitMask() {
+        return litMask;
+    }
 }
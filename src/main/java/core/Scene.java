@@ -32,12 +32,19 @@ public class Scene {
     private final int[] time;
 
     private final List<Building> buildings;
+    private final AnalysisExecutor executor;
+    private final LatestTaskRunner shadowUpdater;
+    private final LatestTaskRunner pathUpdater;
+    private volatile long pathVersion = 0;
+    private TriangleStore triangles;
+    private BVH bvh;
     private Shadow.Type type = Shadow.Type.FACET;
-    private Geometry shadow;
+    private volatile Geometry shadow;
     private SamplingPoint sample;
     private List<SamplingPoint> samples;
     private DurationAnalysis analysis;
     private int gridSubdiv = 100;
+    private AnalysisJob.ProgressListener gridListener;
 
     private boolean ifShowShadow = false;
     private boolean ifShowAllDayShadow = false;
@@ -53,6 +60,9 @@ public class Scene {
         date = sun.getDate();
         time = sun.getTime();
         buildings = new ArrayList<>();
+        executor = new AnalysisExecutor();
+        shadowUpdater = new LatestTaskRunner(executor);
+        pathUpdater = new LatestTaskRunner(executor);
 
         sample = new SamplingPoint(PolyHandler.ORIGIN, WB_Vector.Z());
     }
@@ -73,6 +83,24 @@ public class Scene {
         this.type = t;
     }
 
+    /**
+     * number of analysis threads, the available cores by default
+     *
+     * @param parallelism number of worker threads
+     */
+    public void setParallelism(int parallelism) {
+        executor.setParallelism(parallelism);
+    }
+
+    /**
+     * progress of the grid analysis, called from the worker threads
+     *
+     * @param gridListener listener, nullable
+     */
+    public void setGridListener(AnalysisJob.ProgressListener gridListener) {
+        this.gridListener = gridListener;
+    }
+
     public void setGridSubdiv(int gridSubdiv) {
         this.gridSubdiv = gridSubdiv;
     }
@@ -103,6 +131,8 @@ public class Scene {
 
     public void addBuilding(Building b) {
         buildings.add(b);
+        triangles = null;
+        bvh = null;
     }
 
     public void addMeshesAsBuildings(List<HE_Mesh> meshes, boolean switchYZ) {
@@ -114,12 +144,18 @@ public class Scene {
             else
                 buildings.add(new Building(m));
         }
+        triangles = null;
+        bvh = null;
     }
 
     public Sun getSun() {
         return sun;
     }
 
+    public AnalysisExecutor getExecutor() {
+        return executor;
+    }
+
     public Shadow.Type getType() {
         return type;
     }
@@ -128,6 +164,41 @@ public class Scene {
         return buildings;
     }
 
+    /**
+     * triangles of all buildings, merged after the buildings change
+     *
+     * @return TriangleStore
+     */
+    public synchronized TriangleStore getTriangles() {
+        if (null == triangles)
+            triangles = TriangleStore.merge(buildings);
+        return triangles;
+    }
+
+    /**
+     * bounding volume hierarchy over all building triangles,
+     * the extruded buildings as prisms, rebuilt after the buildings change,
+     * its build time and memory reported once per build
+     *
+     * @return BVH
+     */
+    public synchronized BVH getBVH() {
+        if (null == bvh) {
+            bvh = new BVH(TriangleStore.merge(buildings, false), new PrismStore(buildings));
+            System.out.println(bvh);
+        }
+        return bvh;
+    }
+
+    /**
+     * @return true if an update is still computed in background
+     */
+    public boolean isAnalysing() {
+        AnalysisJob job = analysis.getGridJob();
+        return shadowUpdater.isBusy() || pathUpdater.isBusy()
+                || (null != job && !job.isDone());
+    }
+
     public SamplingPoint getSample() {
         return sample;
     }
@@ -174,26 +245,58 @@ public class Scene {
             analysis.displayGrid(app);
     }
 
+    /**
+     * current shadow on a worker thread, shown once finished
+     */
     private void updateCurrentShadow() {
-        shadow = Shadow.calCurrentShadow(this);
+        WB_Point pos = sun.getPosition();
+        double alpha = sun.getElevation();
+        Shadow.Type t = type;
+        List<Building> bs = new ArrayList<>(buildings);
+        shadowUpdater.submit(() -> shadow = Shadow.calCurrentShadow(pos, alpha, t, bs, executor));
     }
 
+    /**
+     * analysis of the sun path on worker threads,
+     * only the latest of the successive updates runs to the end
+     */
     private void updatePath() {
-        analysis.updateAllDayShadow();
-        analysis.pointAnalysis(sample);
-        if (null != samples)
-            analysis.pointsAnalysis(samples);
-        if (ifShowGrid)
-            analysis.gridAnalysis(
-                    new WB_Point(-Sun.groundRadius, -Sun.groundRadius),
-                    new WB_Point(Sun.groundRadius, Sun.groundRadius),
-                    gridSubdiv, gridSubdiv
-            );
+        SunPath sunPath = sun.getSunPath();
+        Shadow.Type t = type;
+        List<Building> bs = new ArrayList<>(buildings);
+        SamplingPoint sp = sample;
+        List<SamplingPoint> sps = samples;
+        boolean grid = ifShowGrid;
+        int subdiv = gridSubdiv;
+        AnalysisJob.ProgressListener listener = gridListener;
+
+        long version = ++pathVersion;
+        analysis.cancelGridAnalysis();
+        pathUpdater.submit(() -> {
+            analysis.updateAllDayShadow(sunPath, t, bs);
+            if (version != pathVersion)
+                return;
+            analysis.pointAnalysis(sp, sunPath);
+            if (null != sps)
+                analysis.pointsAnalysis(sps, sunPath);
+            if (version != pathVersion)
+                return;
+            // a stale grid is cancelled by the new one
+            if (grid)
+                analysis.submitGridAnalysis(
+                        new WB_Point(-Sun.groundRadius, -Sun.groundRadius),
+                        new WB_Point(Sun.groundRadius, Sun.groundRadius),
+                        subdiv, subdiv, listener
+                );
+            else
+                analysis.cancelGridAnalysis();
+        });
     }
 
     public void capture2d(PApplet app) {
         Vec_Guo pick = cam.pick3dXYPlane(app.mouseX, app.mouseY);
-        sample.setPoint(new WB_Point(pick.x(), pick.y()));
+        // a new point, the one a running path update captured is left to it
+        sample = new SamplingPoint(new WB_Point(pick.x(), pick.y()));
         analysis.pointAnalysis(sample);
     }
 
@@ -201,25 +304,18 @@ public class Scene {
         Vec_Guo[] pick3d = cam.pick3d(app.mouseX, app.mouseY);
         WB_Coord origin = PolyHandler.vec2coord(pick3d[0]);
         WB_Coord dir = PolyHandler.vec2coord(pick3d[1]);
-        WB_Ray ray = PolyHandler.gf.createRayThroughPoints(origin, WB_Vector.add(origin, dir));
-
-        List<Building> captureBuildings = new ArrayList<>();
-        for (Building b : buildings) {
-            if (WB_GeometryOp.checkIntersection3D(ray, b.getAABB()))
-                captureBuildings.add(b);
-        }
 
-        double t = Double.MAX_VALUE;
+        double[] t = new double[1];
         SamplingPoint sp = null;
-        for (Building b : captureBuildings) {
-            for (WB_Triangle tri : b.getTris()) {
-                double tempT = PolyHandler.rayTriIntersectionT(ray, tri);
-                if (tempT < t) {
-                    t = tempT;
-                    WB_Point capture = PolyHandler.pointInRay(ray, t);
-                    sp = new SamplingPoint(capture, tri.getPlane().getNormal());
-                }
-            }
+        BVH tree = getBVH();
+        int hit = tree.closestHit(origin.xd(), origin.yd(), origin.zd(),
+                dir.xd(), dir.yd(), dir.zd(), t);
+        if (hit >= 0) {
+            WB_Point capture = new WB_Point(
+                    origin.xd() + dir.xd() * t[0],
+                    origin.yd() + dir.yd() * t[0],
+                    origin.zd() + dir.zd() * t[0]);
+            sp = new SamplingPoint(capture, tree.getNormal(hit, capture.xd(), capture.yd(), capture.zd()));
         }
 
         if (null == sp) {
@@ -1,13 +1,21 @@
 package core;
 
+import org.locationtech.jts.algorithm.ConvexHull;
+import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.TopologyException;
+import org.locationtech.jts.noding.snapround.GeometryNoder;
+import org.locationtech.jts.operation.polygonize.Polygonizer;
 import processing.core.PApplet;
 import utility.JtsRender;
 import utility.PolyHandler;
+import utility.UnionHandler;
 import wblut.geom.*;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -18,7 +26,12 @@ import java.util.List;
  */
 
 public class Shadow {
-    public enum Type {VOLUME, FACET}
+    public enum Type {VOLUME, FACET, SILHOUETTE}
+
+    /**
+     * grid of the snap-rounded silhouette edges, 1e-6 METERS
+     */
+    private static final PrecisionModel SILHOUETTE_PRECISION = new PrecisionModel(1e6);
 
 //    /**
 //     * shadow at the current time
@@ -55,23 +68,27 @@ public class Shadow {
      */
     public static Geometry calCurrentShadow(Scene scene) {
         Sun sun = scene.getSun();
-        List<Building> buildings = scene.getBuildings();
-        if (sun.getPosition().zd() <= 0)
+        return calCurrentShadow(sun.getPosition(), sun.getElevation(),
+                scene.getType(), scene.getBuildings(), scene.getExecutor());
+    }
+
+    /**
+     * shadow with the sun at a given position, buildings in parallel
+     *
+     * @param pos       position of the sun
+     * @param alpha     elevation of the sun
+     * @param type      shadow type
+     * @param buildings buildings
+     * @param executor  analysis executor
+     * @return Geometry
+     */
+    public static Geometry calCurrentShadow(WB_Point pos, double alpha, Type type,
+                                            List<Building> buildings, AnalysisExecutor executor) {
+        if (pos.zd() <= 0)
             return null;
         Geometry[] geos = new Geometry[buildings.size()];
-        for (int i = 0; i < geos.length; i++) {
-            switch (scene.getType()) {
-                case VOLUME:
-                    geos[i] = calShadowByVolume(
-                            sun.getPosition(), sun.getElevation(), buildings.get(i));
-                    break;
-                case FACET:
-                    geos[i] = calShadowByFacet(sun.getPosition(), buildings.get(i));
-                    break;
-                default:
-                    break;
-            }
-        }
+        executor.parallelFor(geos.length, i ->
+                geos[i] = calBuildingShadow(pos, alpha, type, buildings.get(i)));
         return unionShadow(geos);
     }
 
@@ -119,37 +136,54 @@ public class Shadow {
      * @return Geometry[]
      */
     public static Geometry[] calAllDayShadow(Scene scene) {
-        Sun sun=scene.getSun();
-        List<Building> buildings= scene.getBuildings();
-        WB_PolyLine path = sun.getPath();
-        if (null == path)
+        return calAllDayShadow(scene.getSun().getSunPath(), scene.getType(),
+                scene.getBuildings(), scene.getExecutor());
+    }
+
+    /**
+     * shadow at each analysis step of a sun path,
+     * steps and buildings in parallel, then the union of each step in parallel
+     *
+     * @param sunPath   sun path
+     * @param type      shadow type
+     * @param buildings buildings
+     * @param executor  analysis executor
+     * @return Geometry[]
+     */
+    public static Geometry[] calAllDayShadow(SunPath sunPath, Type type,
+                                             List<Building> buildings, AnalysisExecutor executor) {
+        if (!sunPath.hasPath())
             return null;
 
-        Geometry[] allDayShadow = new Geometry[sun.getPathDiv() - 2];
-        double[] pathElevation = sun.getPathElevation();
-
-        for (int i = 0; i < allDayShadow.length; i++) {
-            Geometry[] timeShadow = new Geometry[buildings.size()];
-            for (int j = 0; j < timeShadow.length; j++) {
-                switch (scene.getType()) {
-                    case VOLUME:
-                        timeShadow[j] = calShadowByVolume(path.getPoint(i + 1),
-                                pathElevation[i + 1], buildings.get(j));
-                        break;
-                    case FACET:
-                        timeShadow[j] = calShadowByFacet(path.getPoint(i + 1), buildings.get(j));
-                        break;
-                    default:
-                        break;
-                }
-            }
+        Geometry[] allDayShadow = new Geometry[sunPath.getStepNum()];
+        int buildingNum = buildings.size();
+        Geometry[][] timeShadow = new Geometry[allDayShadow.length][buildingNum];
 
-            allDayShadow[i] = unionShadow(timeShadow);
-        }
+        executor.parallelFor(allDayShadow.length * buildingNum, k -> {
+            int i = k / buildingNum;
+            int j = k % buildingNum;
+            timeShadow[i][j] = calBuildingShadow(sunPath.getPoint(i + 1),
+                    sunPath.getElevation(i + 1), type, buildings.get(j));
+        });
+        executor.parallelFor(allDayShadow.length, i ->
+                allDayShadow[i] = unionShadow(timeShadow[i]));
 
         return allDayShadow;
     }
 
+    private static Geometry calBuildingShadow(WB_Point pos, double alpha, Type type, Building building) {
+        switch (type) {
+            case VOLUME:
+                return calShadowByVolume(pos, alpha, building);
+            case FACET:
+                return calShadowByFacet(pos, building);
+            case SILHOUETTE:
+                return calShadowBySilhouette(pos, building);
+            default:
+                return null;
+        }
+    }
+
 
     /**
      * building shadow vector
@@ -223,28 +257,21 @@ public class Shadow {
     /**
      * shadow of a triangular facet
      *
-     * @param pos position of the sun
-     * @param tri triangular facet
+     * @param ground projected vertices from TriangleStore.projectToPlane
+     * @param i      index of the triangular facet
      * @return Geometry
      */
-    private static Geometry calFacetShadow(WB_Point pos, WB_Triangle tri) {
-        WB_Point sunlight = pos.mul(-1);
-        WB_Point[] shadowPoints = new WB_Point[3];
-        for (int i = 0; i < shadowPoints.length; i++) {
-            WB_Coord origin = tri.getPoint(i);
-            WB_Ray ray = PolyHandler.gf.createRayThroughPoints(
-                    origin, WB_Point.add(origin, sunlight));
-            shadowPoints[i] = PolyHandler.rayPlaneIntersection(ray, PolyHandler.XY_PLANE);
-            if (null == shadowPoints[i])
-                return null;
-        }
-
-        return PolyHandler.createPolygon(
-                shadowPoints[0], shadowPoints[1], shadowPoints[2]);
+    private static Geometry calFacetShadow(double[] ground, int i) {
+        int k = i * 6;
+        Coordinate c0 = new Coordinate(ground[k], ground[k + 1], 0);
+        return PolyHandler.JTSgf.createPolygon(new Coordinate[]{c0,
+                new Coordinate(ground[k + 2], ground[k + 3], 0),
+                new Coordinate(ground[k + 4], ground[k + 5], 0), c0});
     }
 
     /**
      * shadow of a extruded building, allowing holes
+     * a base without holes swept as a hull instead
      *
      * @param pos      position of the sun
      * @param alpha    elevation of the sun
@@ -257,12 +284,12 @@ public class Shadow {
         WB_Polygon base = building.getBase();
         WB_Coord[] points = base.getPoints().toArray();
         int[] ptsPerContour = base.getNumberOfPointsPerContour();
+        if (ptsPerContour.length == 1)
+            return calConvexShadow(pos, alpha, building);
         Geometry[] shadows = new Geometry[ptsPerContour.length + 1];
 
-        // holes LinearRing[], if any
-        LinearRing[] holes = null;
-        if (ptsPerContour.length > 1)
-            holes = new LinearRing[ptsPerContour.length - 1];
+        // holes LinearRing[]
+        LinearRing[] holes = new LinearRing[ptsPerContour.length - 1];
         // edge shadow of each LinearRing
         for (int i = 0; i < ptsPerContour.length; i++) {
             int startID = sumFirstNElements(ptsPerContour, i);
@@ -284,14 +311,63 @@ public class Shadow {
                 PolyHandler.createLinearRingCoordinates(shellPoints));
 
         // building base to union with edge shadows
-        if (ptsPerContour.length > 1)
-            shadows[shadows.length - 1] = PolyHandler.JTSgf.createPolygon(shell, holes);
-        else
-            shadows[shadows.length - 1] = PolyHandler.JTSgf.createPolygon(shell);
+        shadows[shadows.length - 1] = PolyHandler.JTSgf.createPolygon(shell, holes);
 
         return unionShadow(shadows);
     }
 
+    /**
+     * shadow of a extruded building without holes, the base swept along the shadow vector
+     * convex base - hull of the base and the translated base, no overlay
+     * concave base - union of the hulls of its convex pieces
+     *
+     * @param pos      position of the sun
+     * @param alpha    elevation of the sun
+     * @param building simple building in volume
+     * @return Geometry
+     */
+    private static Geometry calConvexShadow(WB_Point pos, double alpha, Building building) {
+        WB_Point shadowVec = calShadowVector(pos, alpha, building.getHeight());
+        WB_Polygon base = building.getBase();
+        int n = base.getNumberOfPoints();
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double area = 0;
+        for (int i = 0; i < n; i++) {
+            WB_Point p = base.getPoint(i);
+            xs[i] = p.xd();
+            ys[i] = p.yd();
+        }
+        for (int i = 0; i < n; i++)
+            area += xs[i] * ys[(i + 1) % n] - xs[(i + 1) % n] * ys[i];
+
+        // counter-clockwise order of the points
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++)
+            ids[i] = area >= 0 ? i : n - 1 - i;
+        if (PolyHandler.isConvex(xs, ys, ids))
+            return calSweptHull(xs, ys, ids, shadowVec);
+
+        List<int[]> pieces = PolyHandler.decomposeConvex(base, xs, ys);
+        Geometry[] hulls = new Geometry[pieces.size()];
+        for (int i = 0; i < hulls.length; i++)
+            hulls[i] = calSweptHull(xs, ys, pieces.get(i), shadowVec);
+        return UnionHandler.union(hulls);
+    }
+
+    /**
+     * convex hull of a convex piece and the piece translated by the shadow vector
+     */
+    private static Geometry calSweptHull(double[] xs, double[] ys, int[] ids, WB_Point shadowVec) {
+        Coordinate[] coords = new Coordinate[ids.length * 2];
+        for (int i = 0; i < ids.length; i++) {
+            coords[i] = new Coordinate(xs[ids[i]], ys[ids[i]], 0);
+            coords[i + ids.length] = new Coordinate(xs[ids[i]] + shadowVec.xd(),
+                    ys[ids[i]] + shadowVec.yd(), 0);
+        }
+        return new ConvexHull(coords, PolyHandler.JTSgf).getConvexHull();
+    }
+
     /**
      * shadow of a building in facets
      *
@@ -302,14 +378,97 @@ public class Shadow {
     private static Geometry calShadowByFacet(WB_Point pos, Building building) {
         if (pos.zd() <= 0)
             return null;
-        List<WB_Triangle> tri = building.getTris();
-        Geometry[] geos = new Geometry[tri.size()];
+        TriangleStore tris = building.getTriangles();
+        double[] ground = tris.projectToPlane(pos.xd(), pos.yd(), pos.zd(), 0, null);
+        Geometry[] geos = new Geometry[tris.size()];
         for (int i = 0; i < geos.length; i++) {
-            geos[i] = calFacetShadow(pos, tri.get(i));
+            geos[i] = calFacetShadow(ground, i);
         }
         return unionShadow(geos);
     }
 
+    /**
+     * shadow of a building in facets through its silhouette,
+     * the projected silhouette edges split the ground into faces,
+     * each face kept if a ray from it to the sun hits the building
+     * *
+     * open meshes fall back to the facets not edge-on to the sun
+     *
+     * @param pos      position of the sun
+     * @param building complex building in facets
+     * @return Geometry
+     */
+    private static Geometry calShadowBySilhouette(WB_Point pos, Building building) {
+        if (pos.zd() <= 0)
+            return null;
+        TriangleStore tris = building.getTriangles();
+        Silhouette silhouette = building.getSilhouette();
+        double dx = pos.xd(), dy = pos.yd(), dz = pos.zd();
+
+        if (!silhouette.isClosed())
+            // both sides of an open surface cast shadow
+            return calCulledFacetShadow(pos, tris, false);
+
+        int[] edges = silhouette.getSilhouetteEdges(dx, dy, dz);
+        List<LineString> lines = new ArrayList<>(edges.length);
+        for (int e : edges) {
+            Coordinate[] coords = new Coordinate[2];
+            for (int end = 0; end < 2; end++) {
+                double t = silhouette.getCoord(e, end, 2) / dz;
+                coords[end] = new Coordinate(
+                        silhouette.getCoord(e, end, 0) - dx * t,
+                        silhouette.getCoord(e, end, 1) - dy * t);
+            }
+            if (!coords[0].equals2D(coords[1]))
+                lines.add(PolyHandler.JTSgf.createLineString(coords));
+        }
+        if (lines.isEmpty())
+            return PolyHandler.JTSgf.createPolygon();
+
+        // snap-rounded noding of the projected edges, then classify the faces
+        Polygonizer polygonizer = new Polygonizer();
+        try {
+            polygonizer.add(PolyHandler.JTSgf.buildGeometry(
+                    new GeometryNoder(SILHOUETTE_PRECISION).node(lines)).union());
+        } catch (TopologyException e) {
+            return calCulledFacetShadow(pos, tris, true);
+        }
+        List<Geometry> faces = new ArrayList<>();
+        for (Object o : polygonizer.getPolygons()) {
+            Geometry face = (Geometry) o;
+            Coordinate c = face.getInteriorPoint().getCoordinate();
+            for (int i = 0; i < tris.size(); i++) {
+                if (tris.intersect(i, c.x, c.y, 0, dx, dy, dz) >= 0) {
+                    faces.add(face);
+                    break;
+                }
+            }
+        }
+        return UnionHandler.union(faces.toArray(new Geometry[0]));
+    }
+
+    /**
+     * shadow of the facets not edge-on to the sun,
+     * the back facets of a closed mesh culled as well
+     *
+     * @param pos    position of the sun
+     * @param tris   packed triangles
+     * @param closed if the mesh is closed
+     * @return Geometry
+     */
+    private static Geometry calCulledFacetShadow(WB_Point pos, TriangleStore tris, boolean closed) {
+        double dx = pos.xd(), dy = pos.yd(), dz = pos.zd();
+        double epsilon = 1e-9 * Math.sqrt(dx * dx + dy * dy + dz * dz);
+        double[] ground = tris.projectToPlane(dx, dy, dz, 0, null);
+        List<Geometry> geos = new ArrayList<>();
+        for (int i = 0; i < tris.size(); i++) {
+            double cos = tris.nx[i] * dx + tris.ny[i] * dy + tris.nz[i] * dz;
+            if (cos > epsilon || (!closed && cos < -epsilon))
+                geos.add(calFacetShadow(ground, i));
+        }
+        return unionShadow(geos.toArray(new Geometry[0]));
+    }
+
     private static Geometry unionShadow(Geometry[] geos) {
         if (geos.length == 1)
             return geos[0];
@@ -317,8 +476,7 @@ public class Shadow {
             if (null == g)
                 return null;
         }
-        GeometryCollection gc = PolyHandler.JTSgf.createGeometryCollection(geos);
-        return gc.buffer(0);
+        return UnionHandler.union(geos);
     }
 
     public static void displayShadow(Geometry shadow, JtsRender jtsRender) {
@@ -0,0 +1,191 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * orthographic depth map of the scene seen from the sun at one sun position
+ * a point is in shadow if a triangle nearer to the sun covers its texel
+ *
+ * @author Wu
+ * @create 2021-04-24 9:15
+ */
+
+public class ShadowMap {
+    /**
+     * unit direction to the sun and the two axes of the map
+     */
+    private final double sx, sy, sz;
+    private final double ux, uy, uz;
+    private final double vx, vy, vz;
+    /**
+     * map extent in the (u, v) plane and the texel size
+     */
+    private final double minU, minV, texel;
+    private final int width, height;
+    private final double bias;
+    /**
+     * depth along the sun direction nearest to the sun, -Infinity if empty
+     */
+    private final float[] depth;
+
+    /**
+     * rasterize the triangles into a depth map
+     *
+     * @param tris       triangles
+     * @param dx         direction to the sun x
+     * @param dy         direction to the sun y
+     * @param dz         direction to the sun z
+     * @param resolution texels along the longer side of the map
+     * @param bias       depth tolerance against self-shadowing
+     */
+    public ShadowMap(TriangleStore tris, double dx, double dy, double dz,
+                     int resolution, double bias) {
+        if (resolution < 1)
+            throw new IllegalArgumentException("Resolution must be positive: " + resolution);
+        double len = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (len == 0)
+            throw new IllegalArgumentException("Sun direction must not be zero");
+        sx = dx / len;
+        sy = dy / len;
+        sz = dz / len;
+        // u horizontal unless the sun is at the zenith
+        double hx = -sy, hy = sx;
+        double h = Math.sqrt(hx * hx + hy * hy);
+        if (h < 1e-9) {
+            hx = 1;
+            hy = 0;
+            h = 1;
+        }
+        ux = hx / h;
+        uy = hy / h;
+        uz = 0;
+        vx = sy * uz - sz * uy;
+        vy = sz * ux - sx * uz;
+        vz = sx * uy - sy * ux;
+        this.bias = bias;
+
+        // vertices in map space: u, v, depth
+        int n = tris.size();
+        double[] p = new double[n * 9];
+        double u0 = Double.MAX_VALUE, v0 = Double.MAX_VALUE;
+        double u1 = -Double.MAX_VALUE, v1 = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < 3; j++) {
+                double x = tris.getCoord(i, j, 0);
+                double y = tris.getCoord(i, j, 1);
+                double z = tris.getCoord(i, j, 2);
+                int k = i * 9 + j * 3;
+                p[k] = x * ux + y * uy + z * uz;
+                p[k + 1] = x * vx + y * vy + z * vz;
+                p[k + 2] = x * sx + y * sy + z * sz;
+                u0 = Math.min(u0, p[k]);
+                u1 = Math.max(u1, p[k]);
+                v0 = Math.min(v0, p[k + 1]);
+                v1 = Math.max(v1, p[k + 1]);
+            }
+        }
+        if (n == 0) {
+            u0 = v0 = 0;
+            u1 = v1 = 1;
+        }
+        double size = Math.max(Math.max(u1 - u0, v1 - v0), 1e-9);
+        texel = size / resolution;
+        // one texel of margin on each side
+        minU = u0 - texel;
+        minV = v0 - texel;
+        width = (int) Math.ceil((u1 - u0) / texel) + 2;
+        height = (int) Math.ceil((v1 - v0) / texel) + 2;
+        depth = new float[width * height];
+        Arrays.fill(depth, Float.NEGATIVE_INFINITY);
+
+        for (int i = 0; i < n; i++)
+            rasterize(p, i * 9);
+    }
+
+    /**
+     * keep the depth nearest to the sun at each texel center covered by a triangle
+     *
+     * @param p vertices in map space
+     * @param k offset of the triangle
+     */
+    private void rasterize(double[] p, int k) {
+        double x0 = (p[k] - minU) / texel, y0 = (p[k + 1] - minV) / texel, z0 = p[k + 2];
+        double x1 = (p[k + 3] - minU) / texel, y1 = (p[k + 4] - minV) / texel, z1 = p[k + 5];
+        double x2 = (p[k + 6] - minU) / texel, y2 = (p[k + 7] - minV) / texel, z2 = p[k + 8];
+        double area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+        // parallel to the sun, covered by its neighbours
+        if (area == 0)
+            return;
+
+        int cStart = Math.max((int) Math.ceil(Math.min(x0, Math.min(x1, x2)) - 0.5), 0);
+        int cEnd = Math.min((int) Math.floor(Math.max(x0, Math.max(x1, x2)) - 0.5), width - 1);
+        int rStart = Math.max((int) Math.ceil(Math.min(y0, Math.min(y1, y2)) - 0.5), 0);
+        int rEnd = Math.min((int) Math.floor(Math.max(y0, Math.max(y1, y2)) - 0.5), height - 1);
+        double inv = 1 / area;
+        for (int r = rStart; r <= rEnd; r++) {
+            double y = r + 0.5;
+            for (int c = cStart; c <= cEnd; c++) {
+                double x = c + 0.5;
+                // barycentric coordinates, either winding
+                double b0 = ((x1 - x) * (y2 - y) - (x2 - x) * (y1 - y)) * inv;
+                double b1 = ((x2 - x) * (y0 - y) - (x0 - x) * (y2 - y)) * inv;
+                double b2 = 1 - b0 - b1;
+                if (b0 < 0 || b1 < 0 || b2 < 0)
+                    continue;
+                float d = (float) (b0 * z0 + b1 * z1 + b2 * z2);
+                int t = r * width + c;
+                if (d > depth[t])
+                    depth[t] = d;
+            }
+        }
+    }
+
+    /**
+     * lit fraction of a point with percentage-closer filtering
+     *
+     * @param x      point x
+     * @param y      point y
+     * @param z      point z
+     * @param radius filter radius in texels, 0 for a single texel
+     * @return double in [0, 1]
+     */
+    public double getLitFraction(double x, double y, double z, int radius) {
+        int c = (int) Math.floor((x * ux + y * uy + z * uz - minU) / texel);
+        int r = (int) Math.floor((x * vx + y * vy + z * vz - minV) / texel);
+        double d = x * sx + y * sy + z * sz + bias;
+        int shadowed = 0;
+        for (int i = r - radius; i <= r + radius; i++) {
+            if (i < 0 || i >= height)
+                continue;
+            for (int j = c - radius; j <= c + radius; j++)
+                if (j >= 0 && j < width && depth[i * width + j] > d)
+                    shadowed++;
+        }
+        int side = 2 * radius + 1;
+        return 1 - (double) shadowed / (side * side);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return size of a texel in the scene unit
+     */
+    public double getTexelSize() {
+        return texel;
+    }
+
+    public double getBias() {
+        return bias;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ShadowMap {%dx%d, texel %.3f, bias %.3f}", width, height, texel, bias);
+    }
+}
@@ -0,0 +1,204 @@
+package core;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.util.PolygonExtracter;
+import wblut.geom.WB_Point;
+
+import java.util.Arrays;
+
+/**
+ * scan-converted count of shadowed samples for a ground grid
+ * each cell holds supersample x supersample samples,
+ * the crossings of every shadow with each sample row are computed once
+ *
+ * @author Wu
+ * @create 2021-04-23 10:02
+ */
+
+public class ShadowRaster {
+    private final WB_Point leftBottom, rightTop;
+    private final int row, col;
+    private final int supersample;
+    private final double sunlightDuration;
+    private final int stepNum;
+
+    /**
+     * for each lit step: crossing x of each sample row in sample units,
+     * sorted, rowOffset[step][k] to rowOffset[step][k + 1]
+     */
+    private final double[][] crossings;
+    private final int[][] rowOffset;
+    /**
+     * shadowed samples of each cell
+     */
+    private final int[] counter;
+
+    /**
+     * @param leftBottom  left bottom corner
+     * @param rightTop    right top corner
+     * @param row         number of rows
+     * @param col         number of columns
+     * @param supersample samples along each side of a cell, 1 for the cell center only
+     * @param shadows     shadow at each step, null if the step is not lit
+     * @param sunlightDuration sunlight duration in HOURS
+     */
+    public ShadowRaster(WB_Point leftBottom, WB_Point rightTop, int row, int col,
+                        int supersample, Geometry[] shadows, double sunlightDuration) {
+        if (supersample < 1)
+            throw new IllegalArgumentException("Supersample must be positive: " + supersample);
+        this.leftBottom = leftBottom;
+        this.rightTop = rightTop;
+        this.row = row;
+        this.col = col;
+        this.supersample = supersample;
+        this.sunlightDuration = sunlightDuration;
+        this.stepNum = null == shadows ? 0 : shadows.length;
+        this.counter = new int[row * col];
+
+        int litNum = 0;
+        if (null != shadows)
+            for (Geometry g : shadows)
+                if (null != g)
+                    litNum++;
+        crossings = new double[litNum][];
+        rowOffset = new int[litNum][];
+        int k = 0;
+        if (null != shadows)
+            for (Geometry g : shadows)
+                if (null != g)
+                    scanConvert(g, k++);
+    }
+
+    /**
+     * crossings of the rings of a shadow with the center line of each sample row
+     *
+     * @param shadow polygonal shadow
+     * @param step   index of the lit step
+     */
+    private void scanConvert(Geometry shadow, int step) {
+        int sampleRows = row * supersample;
+        double su = col * supersample / (rightTop.xd() - leftBottom.xd());
+        double sv = sampleRows / (rightTop.yd() - leftBottom.yd());
+
+        // two passes over the edges: count, then fill
+        int[] offset = new int[sampleRows + 1];
+        double[] xs = null;
+        for (int pass = 0; pass < 2; pass++) {
+            int[] cursor = null;
+            if (pass == 1) {
+                for (int r = 0; r < sampleRows; r++)
+                    offset[r + 1] += offset[r];
+                xs = new double[offset[sampleRows]];
+                cursor = Arrays.copyOf(offset, sampleRows);
+            }
+            for (Object o : PolygonExtracter.getPolygons(shadow)) {
+                Polygon p = (Polygon) o;
+                scanRing(p.getExteriorRing(), su, sv, sampleRows, offset, xs, cursor);
+                for (int h = 0; h < p.getNumInteriorRing(); h++)
+                    scanRing(p.getInteriorRingN(h), su, sv, sampleRows, offset, xs, cursor);
+            }
+        }
+        for (int r = 0; r < sampleRows; r++)
+            Arrays.sort(xs, offset[r], offset[r + 1]);
+        crossings[step] = xs;
+        rowOffset[step] = offset;
+    }
+
+    /**
+     * count the crossings of each sample row, or record them if xs is given
+     */
+    private void scanRing(LineString ring, double su, double sv, int sampleRows,
+                          int[] offset, double[] xs, int[] cursor) {
+        Coordinate[] coords = ring.getCoordinates();
+        for (int i = 0; i < coords.length - 1; i++) {
+            double u0 = (coords[i].x - leftBottom.xd()) * su;
+            double v0 = (coords[i].y - leftBottom.yd()) * sv;
+            double u1 = (coords[i + 1].x - leftBottom.xd()) * su;
+            double v1 = (coords[i + 1].y - leftBottom.yd()) * sv;
+            if (v0 == v1)
+                continue;
+            // sample rows with v0 <= r + 0.5 < v1
+            double vMin = Math.min(v0, v1);
+            double vMax = Math.max(v0, v1);
+            int rStart = Math.max((int) Math.ceil(vMin - 0.5), 0);
+            int rEnd = Math.min((int) Math.ceil(vMax - 0.5), sampleRows);
+            double slope = (u1 - u0) / (v1 - v0);
+            for (int r = rStart; r < rEnd; r++) {
+                if (null == xs)
+                    offset[r + 1]++;
+                else
+                    xs[cursor[r]++] = u0 + (r + 0.5 - v0) * slope;
+            }
+        }
+    }
+
+    /**
+     * fill the counter of the cells in [rowStart, rowEnd),
+     * the row ranges of concurrent calls must not overlap
+     *
+     * @param rowStart first row
+     * @param rowEnd   last row, exclusive
+     */
+    public void rasterize(int rowStart, int rowEnd) {
+        int sampleCols = col * supersample;
+        for (int step = 0; step < crossings.length; step++) {
+            double[] xs = crossings[step];
+            int[] offset = rowOffset[step];
+            for (int r = rowStart * supersample; r < rowEnd * supersample; r++) {
+                int base = (r / supersample) * col;
+                // spans between pairs of crossings, even-odd
+                for (int k = offset[r]; k + 1 < offset[r + 1]; k += 2) {
+                    int cStart = Math.max((int) Math.ceil(xs[k] - 0.5), 0);
+                    int cEnd = Math.min((int) Math.ceil(xs[k + 1] - 0.5), sampleCols);
+                    for (int c = cStart; c < cEnd; c++)
+                        counter[base + c / supersample]++;
+                }
+            }
+        }
+    }
+
+    public WB_Point getLeftBottom() {
+        return leftBottom;
+    }
+
+    public WB_Point getRightTop() {
+        return rightTop;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    public int getSupersample() {
+        return supersample;
+    }
+
+    /**
+     * @param i row
+     * @param j column
+     * @return lit fraction of the steps and samples of a cell
+     */
+    public double getLitFraction(int i, int j) {
+        if (stepNum == 0)
+            return 0;
+        int samples = supersample * supersample;
+        return (double) (crossings.length * samples - counter[i * col + j])
+                / (stepNum * samples);
+    }
+
+    /**
+     * @param i row
+     * @param j column
+     * @return sunlight duration in HOURS
+     */
+    public double getDuration(int i, int j) {
+        return sunlightDuration * getLitFraction(i, j);
+    }
+}
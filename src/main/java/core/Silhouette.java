@@ -0,0 +1,202 @@
+package core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * edge adjacency of a triangle mesh for silhouette extraction
+ * vertices are matched on a 1e-6 grid, facet orientation is not required
+ *
+ * @author Wu
+ * @create 2021-04-22 14:16
+ */
+
+public class Silhouette {
+    private static final double QUANTUM = 1e6;
+
+    private final TriangleStore tris;
+    /**
+     * each edge: triangle a, vertex i and j of triangle a,
+     * triangle b or -1 and the vertex of b off the edge
+     */
+    private final int[] edgeTriA, edgeVertI, edgeVertJ, edgeTriB, edgeVertB;
+    /**
+     * ends of each edge, shared vertices having identical coordinates
+     */
+    private final int[] edgeStart, edgeEnd;
+    private final double[] vx, vy, vz;
+    private final int edgeNum;
+    private final boolean closed;
+
+    public Silhouette(TriangleStore tris) {
+        this.tris = tris;
+        int capacity = tris.size() * 3;
+        edgeTriA = new int[capacity];
+        edgeVertI = new int[capacity];
+        edgeVertJ = new int[capacity];
+        edgeTriB = new int[capacity];
+        edgeVertB = new int[capacity];
+        edgeStart = new int[capacity];
+        edgeEnd = new int[capacity];
+
+        Map<Vertex, Integer> vertexIds = new HashMap<>();
+        int[] ids = new int[capacity];
+        for (int t = 0; t < tris.size(); t++)
+            for (int j = 0; j < 3; j++)
+                ids[t * 3 + j] = vertexId(vertexIds, t, j);
+        // the first occurrence of each vertex
+        vx = new double[vertexIds.size()];
+        vy = new double[vertexIds.size()];
+        vz = new double[vertexIds.size()];
+        for (int t = tris.size() - 1; t >= 0; t--) {
+            for (int j = 2; j >= 0; j--) {
+                int id = ids[t * 3 + j];
+                vx[id] = tris.getCoord(t, j, 0);
+                vy[id] = tris.getCoord(t, j, 1);
+                vz[id] = tris.getCoord(t, j, 2);
+            }
+        }
+
+        Map<Long, Integer> edges = new HashMap<>();
+        boolean manifold = true;
+        int n = 0;
+        for (int t = 0; t < tris.size(); t++) {
+            for (int j = 0; j < 3; j++) {
+                int a = ids[t * 3 + j];
+                int b = ids[t * 3 + (j + 1) % 3];
+                if (a == b)
+                    continue;
+                long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+                Integer e = edges.get(key);
+                if (null == e) {
+                    edges.put(key, n);
+                    edgeTriA[n] = t;
+                    edgeVertI[n] = j;
+                    edgeVertJ[n] = (j + 1) % 3;
+                    edgeTriB[n] = -1;
+                    edgeStart[n] = a;
+                    edgeEnd[n] = b;
+                    n++;
+                } else if (edgeTriB[e] < 0) {
+                    edgeTriB[e] = t;
+                    edgeVertB[e] = (j + 2) % 3;
+                } else {
+                    manifold = false;
+                }
+            }
+        }
+        edgeNum = n;
+
+        boolean watertight = manifold;
+        for (int e = 0; e < n && watertight; e++)
+            if (edgeTriB[e] < 0)
+                watertight = false;
+        closed = watertight;
+    }
+
+    private int vertexId(Map<Vertex, Integer> vertexIds, int t, int j) {
+        Vertex key = new Vertex(
+                Math.round(tris.getCoord(t, j, 0) * QUANTUM),
+                Math.round(tris.getCoord(t, j, 1) * QUANTUM),
+                Math.round(tris.getCoord(t, j, 2) * QUANTUM));
+        Integer id = vertexIds.get(key);
+        if (null == id) {
+            id = vertexIds.size();
+            vertexIds.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * quantized vertex position
+     */
+    private static final class Vertex {
+        private final long x, y, z;
+
+        private Vertex(long x, long y, long z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Vertex))
+                return false;
+            Vertex v = (Vertex) o;
+            return x == v.x && y == v.y && z == v.z;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(x * 31 * 31 + y * 31 + z);
+        }
+    }
+
+    /**
+     * @return true if every edge is shared by exactly two triangles
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getEdgeNum() {
+        return edgeNum;
+    }
+
+    /**
+     * edges whose two triangles lie on the same side of the plane
+     * through the edge along the direction, and the border edges
+     *
+     * @param dx direction x
+     * @param dy direction y
+     * @param dz direction z
+     * @return indices of the silhouette edges
+     */
+    public int[] getSilhouetteEdges(double dx, double dy, double dz) {
+        int[] result = new int[edgeNum];
+        int n = 0;
+        for (int e = 0; e < edgeNum; e++) {
+            int b = edgeTriB[e];
+            if (b < 0) {
+                result[n++] = e;
+                continue;
+            }
+            int a = edgeTriA[e];
+            int i = edgeVertI[e];
+            int j = edgeVertJ[e];
+            int k = 3 - i - j;
+            double px = tris.getCoord(a, i, 0), py = tris.getCoord(a, i, 1), pz = tris.getCoord(a, i, 2);
+            double ex = tris.getCoord(a, j, 0) - px;
+            double ey = tris.getCoord(a, j, 1) - py;
+            double ez = tris.getCoord(a, j, 2) - pz;
+            // normal of the plane through the edge along the direction
+            double mx = ey * dz - ez * dy;
+            double my = ez * dx - ex * dz;
+            double mz = ex * dy - ey * dx;
+            double sa = mx * (tris.getCoord(a, k, 0) - px) + my * (tris.getCoord(a, k, 1) - py)
+                    + mz * (tris.getCoord(a, k, 2) - pz);
+            double sb = mx * (tris.getCoord(b, edgeVertB[e], 0) - px)
+                    + my * (tris.getCoord(b, edgeVertB[e], 1) - py)
+                    + mz * (tris.getCoord(b, edgeVertB[e], 2) - pz);
+            if (sa * sb >= 0)
+                result[n++] = e;
+        }
+        int[] edges = new int[n];
+        System.arraycopy(result, 0, edges, 0, n);
+        return edges;
+    }
+
+    /**
+     * coordinate of an edge end
+     *
+     * @param e    index of the edge
+     * @param end  0 - start, 1 - end
+     * @param axis 0 - x, 1 - y, 2 - z
+     * @return double
+     */
+    public double getCoord(int e, int end, int axis) {
+        int v = end == 0 ? edgeStart[e] : edgeEnd[e];
+        return axis == 0 ? vx[v] : axis == 1 ? vy[v] : vz[v];
+    }
+}
@@ -29,6 +29,10 @@ public class Sun {
     public static final int[] Nanjing = new int[]{117, 24};
     public static final int[] summerSolstice = new int[]{6, 22};
     public static final int[] winterSolstice = new int[]{12, 22};
+    /**
+     * Great Cold (大寒), the date of the sunlight requirements of residential buildings
+     */
+    public static final int[] greatCold = new int[]{1, 20};
     public static final int[] noon = new int[]{14, 0};
 
     /**
@@ -130,7 +134,7 @@ public class Sun {
      * @param month integer in [1, 12]
      * @param day   integer in [1, 31]
      */
-    private static void checkDate(int month, int day) {
+    static void checkDate(int month, int day) {
         if (month < 1 || month > 12)
             throw new IllegalArgumentException(
                     "Month must be between 1 and 12: " + month);
@@ -218,6 +222,7 @@ public class Sun {
     private int pathDiv = 30;
     private WB_PolyLine path;
     private double[] pathElevation;
+    private SunPath sunPath;
 
     public Sun() {
         this(Nanjing[0], Nanjing[1]);
@@ -277,6 +282,20 @@ public class Sun {
         return location;
     }
 
+    /**
+     * @return double in DEGREES
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return double in DEGREES
+     */
+    public double getLatitude() {
+        return Math.toDegrees(latRad);
+    }
+
     public int[] getDate() {
         return date;
     }
@@ -305,6 +324,15 @@ public class Sun {
         return sunlightDuration;
     }
 
+    /**
+     * snapshot of the current path, not affected by later updates
+     *
+     * @return SunPath
+     */
+    public SunPath getSunPath() {
+        return sunPath;
+    }
+
     public WB_Point getPosition() {
         return pos;
     }
@@ -501,6 +529,8 @@ public class Sun {
             if (polar && pos.zd() <= 0) {
                 path = null;
                 pathElevation = null;
+                sunPath = new SunPath(null, null, pathDiv, sunlightDuration,
+                        sunriseSunset, latRad, deltaRad, TC / 60);
                 setTime(curTime);
                 return;
             }
@@ -512,9 +542,30 @@ public class Sun {
             pathPoints.add(pathPoints.get(0));
 
         path = PolyHandler.gf.createPolyLine(pathPoints);
+        sunPath = new SunPath(path, pathElevation, pathDiv, sunlightDuration,
+                sunriseSunset, latRad, deltaRad, TC / 60);
         setTime(curTime);
     }
 
+    /**
+     * sun paths of several dates at the current location and path division,
+     * calculated on a copy, the current date and path unchanged
+     *
+     * @param dates {month, day} of each date
+     * @return SunPath[] in the order of the dates
+     */
+    public SunPath[] calSunPaths(int[][] dates) {
+        Sun copy = new Sun(longitude, getLatitude());
+        copy.pathDiv = pathDiv;
+        SunPath[] paths = new SunPath[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            copy.setDate(dates[i][0], dates[i][1]);
+            copy.calSunPath();
+            paths[i] = copy.getSunPath();
+        }
+        return paths;
+    }
+
     /**
      * display the sun
      *
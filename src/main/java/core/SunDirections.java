@@ -0,0 +1,107 @@
+package core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * distinct sun directions of several sun paths
+ * steps of different dates closer than the tolerance share one direction,
+ * e.g. the dates of the same declination before and after a solstice
+ *
+ * @author Wu
+ * @create 2021-04-29 9:20
+ */
+
+public class SunDirections {
+    /**
+     * smallest cell keeping the 21 bits of each component
+     */
+    public static final double MIN_TOLERANCE = 1e-6;
+
+    /**
+     * unit direction to the sun of each distinct direction
+     */
+    final double[] dirX, dirY, dirZ;
+    /**
+     * index of the distinct direction of each step of each path
+     */
+    final int[][] stepDir;
+    private final int stepTotal;
+
+    /**
+     * directions snapped to cells of the tolerance, the first in a cell kept
+     *
+     * @param paths     sun paths
+     * @param tolerance cell size in RADIANS, at least MIN_TOLERANCE
+     */
+    public SunDirections(SunPath[] paths, double tolerance) {
+        if (!(tolerance >= MIN_TOLERANCE))
+            throw new IllegalArgumentException("Tolerance must be at least " + MIN_TOLERANCE + ": " + tolerance);
+        int total = 0;
+        for (SunPath path : paths)
+            total += path.weight.length;
+        stepTotal = total;
+
+        double[] x = new double[total], y = new double[total], z = new double[total];
+        Map<Long, Integer> cells = new HashMap<>();
+        stepDir = new int[paths.length][];
+        int n = 0;
+        for (int d = 0; d < paths.length; d++) {
+            SunPath path = paths[d];
+            stepDir[d] = new int[path.weight.length];
+            for (int s = 0; s < path.weight.length; s++) {
+                double dx = path.dirX[s], dy = path.dirY[s], dz = path.dirZ[s];
+                Integer index = cells.putIfAbsent(cell(dx, dy, dz, tolerance), n);
+                if (null == index) {
+                    x[n] = dx;
+                    y[n] = dy;
+                    z[n] = dz;
+                    index = n++;
+                }
+                stepDir[d][s] = index;
+            }
+        }
+        dirX = Arrays.copyOf(x, n);
+        dirY = Arrays.copyOf(y, n);
+        dirZ = Arrays.copyOf(z, n);
+    }
+
+    /**
+     * components of a unit vector in [-1, 1] on a grid of the tolerance, 21 bits each
+     */
+    private static long cell(double dx, double dy, double dz, double tolerance) {
+        long i = (long) Math.floor((dx + 1) / tolerance) & 0x1FFFFF;
+        long j = (long) Math.floor((dy + 1) / tolerance) & 0x1FFFFF;
+        long k = (long) Math.floor((dz + 1) / tolerance) & 0x1FFFFF;
+        return i << 42 | j << 21 | k;
+    }
+
+    /**
+     * @return number of distinct directions
+     */
+    public int size() {
+        return dirX.length;
+    }
+
+    /**
+     * @return number of steps of all paths
+     */
+    public int getStepTotal() {
+        return stepTotal;
+    }
+
+    /**
+     * @param path index of the path
+     * @param step index of the step
+     * @return index of the distinct direction
+     */
+    public int getDirection(int path, int step) {
+        return stepDir[path][step];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SunDirections {%d steps, %d distinct}", stepTotal, size());
+    }
+}
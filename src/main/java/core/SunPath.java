@@ -0,0 +1,197 @@
+package core;
+
+import wblut.geom.WB_Point;
+import wblut.geom.WB_PolyLine;
+import wblut.geom.WB_Vector;
+
+/**
+ * immutable snapshot of the sun path for analysis on worker threads
+ *
+ * @author Wu
+ * @create 2021-04-20 9:41
+ */
+
+public class SunPath {
+    private final WB_PolyLine path;
+    private final double[] pathElevation;
+    private final int pathDiv;
+    private final double sunlightDuration;
+    /**
+     * sunrise and sunset in HOURS of local time, latitude and declination in RADIANS
+     * and the time correction in HOURS, to place the sun at any time of the day
+     */
+    private final double sunrise, sunset;
+    private final double latRad, deltaRad, correction;
+
+    /**
+     * unit direction to the sun and the duration in HOURS of each step,
+     * read in the inner loops of the analysis
+     */
+    final double[] dirX, dirY, dirZ;
+    final double[] weight;
+
+    SunPath(WB_PolyLine path, double[] pathElevation, int pathDiv, double sunlightDuration,
+            double[] sunriseSunset, double latRad, double deltaRad, double correction) {
+        this.path = path;
+        this.pathElevation = null == pathElevation ? null : pathElevation.clone();
+        this.pathDiv = pathDiv;
+        this.sunlightDuration = sunlightDuration;
+        this.sunrise = sunriseSunset[0];
+        this.sunset = sunriseSunset[1];
+        this.latRad = latRad;
+        this.deltaRad = deltaRad;
+        this.correction = correction;
+
+        int stepNum = null == path ? 0 : Math.max(pathDiv - 2, 0);
+        dirX = new double[stepNum];
+        dirY = new double[stepNum];
+        dirZ = new double[stepNum];
+        weight = new double[stepNum];
+        for (int i = 0; i < stepNum; i++) {
+            WB_Point p = path.getPoint(i + 1);
+            double len = Math.sqrt(p.xd() * p.xd() + p.yd() * p.yd() + p.zd() * p.zd());
+            dirX[i] = p.xd() / len;
+            dirY[i] = p.yd() / len;
+            dirZ[i] = p.zd() / len;
+            weight[i] = sunlightDuration / stepNum;
+        }
+    }
+
+    /**
+     * @return false if the sun never rises
+     */
+    public boolean hasPath() {
+        return null != path;
+    }
+
+    public WB_PolyLine getPath() {
+        return path;
+    }
+
+    public WB_Point getPoint(int i) {
+        return path.getPoint(i);
+    }
+
+    /**
+     * elevation in RADIANS
+     *
+     * @param i index of the path point
+     * @return double
+     */
+    public double getElevation(int i) {
+        return pathElevation[i];
+    }
+
+    public int getPathDiv() {
+        return pathDiv;
+    }
+
+    /**
+     * number of analysis steps, the path points except sunrise and sunset
+     *
+     * @return int
+     */
+    public int getStepNum() {
+        return pathDiv - 2;
+    }
+
+    /**
+     * unit direction to the sun at a step
+     *
+     * @param i index of the step, path point i + 1
+     * @return WB_Vector
+     */
+    public WB_Vector getDirection(int i) {
+        return new WB_Vector(dirX[i], dirY[i], dirZ[i]);
+    }
+
+    /**
+     * local time of a step, the path points evenly spaced from sunrise to sunset
+     *
+     * @param i index of the step, path point i + 1
+     * @return double in HOURS
+     */
+    public double getStepTime(int i) {
+        return sunrise + (i + 1) * (sunset - sunrise) / (pathDiv - 1);
+    }
+
+    /**
+     * @return double in HOURS
+     */
+    public double getSunrise() {
+        return sunrise;
+    }
+
+    /**
+     * @return double in HOURS
+     */
+    public double getSunset() {
+        return sunset;
+    }
+
+    /**
+     * @return latitude in RADIANS
+     */
+    public double getLatitude() {
+        return latRad;
+    }
+
+    /**
+     * @return declination in RADIANS
+     */
+    public double getDeclination() {
+        return deltaRad;
+    }
+
+    /**
+     * true solar time less local time
+     *
+     * @return double in HOURS
+     */
+    public double getTimeCorrection() {
+        return correction;
+    }
+
+    /**
+     * hour angle, 0 at solar noon and negative in the morning
+     *
+     * @param hours local time in HOURS
+     * @return double in RADIANS
+     */
+    public double getHourAngle(double hours) {
+        return Math.toRadians(15 * (hours + correction - 12));
+    }
+
+    /**
+     * unit direction to the sun at any local time of the date
+     *
+     * @param hours local time in HOURS
+     * @param out   x, y, z of the direction
+     */
+    public void getDirection(double hours, double[] out) {
+        double hra = getHourAngle(hours);
+        double cosDelta = Math.cos(deltaRad), sinDelta = Math.sin(deltaRad);
+        double cosLat = Math.cos(latRad), sinLat = Math.sin(latRad);
+        // east, north, up
+        out[0] = -cosDelta * Math.sin(hra);
+        out[1] = sinDelta * cosLat - cosDelta * sinLat * Math.cos(hra);
+        out[2] = sinDelta * sinLat + cosDelta * cosLat * Math.cos(hra);
+    }
+
+    /**
+     * sunlight duration a step stands for
+     *
+     * @param i index of the step
+     * @return double in HOURS
+     */
+    public double getWeight(int i) {
+        return weight[i];
+    }
+
+    /**
+     * @return double in HOURS
+     */
+    public double getSunlightDuration() {
+        return sunlightDuration;
+    }
+}
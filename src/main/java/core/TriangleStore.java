@@ -0,0 +1,282 @@
+package core;
+
+import utility.PolyHandler;
+import wblut.geom.WB_Coord;
+import wblut.geom.WB_Point;
+import wblut.geom.WB_Triangle;
+import wblut.geom.WB_Vector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * packed triangles in structure-of-arrays layout
+ * vertex0, edge1 = v1 - v0, edge2 = v2 - v0, unit normal and building id
+ *
+ * @author Wu
+ * @create 2021-04-15 9:37
+ */
+
+public class TriangleStore {
+    private int size;
+
+    final double[] v0x, v0y, v0z;
+    final double[] e1x, e1y, e1z;
+    final double[] e2x, e2y, e2z;
+    final double[] nx, ny, nz;
+    final int[] building;
+
+    private TriangleStore(int capacity) {
+        v0x = new double[capacity];
+        v0y = new double[capacity];
+        v0z = new double[capacity];
+        e1x = new double[capacity];
+        e1y = new double[capacity];
+        e1z = new double[capacity];
+        e2x = new double[capacity];
+        e2y = new double[capacity];
+        e2z = new double[capacity];
+        nx = new double[capacity];
+        ny = new double[capacity];
+        nz = new double[capacity];
+        building = new int[capacity];
+    }
+
+    /**
+     * pack the triangles of a building
+     *
+     * @param tris triangles
+     * @param id   building id
+     */
+    public TriangleStore(List<WB_Triangle> tris, int id) {
+        this(tris.size());
+        for (WB_Triangle tri : tris) {
+            WB_Coord p0 = tri.getPoint(0);
+            WB_Coord p1 = tri.getPoint(1);
+            WB_Coord p2 = tri.getPoint(2);
+            add(p0.xd(), p0.yd(), p0.zd(),
+                    p1.xd() - p0.xd(), p1.yd() - p0.yd(), p1.zd() - p0.zd(),
+                    p2.xd() - p0.xd(), p2.yd() - p0.yd(), p2.zd() - p0.zd(), id);
+        }
+    }
+
+    /**
+     * merge the triangles of all buildings, the id being the index of each building
+     *
+     * @param buildings buildings
+     * @return TriangleStore
+     */
+    public static TriangleStore merge(List<Building> buildings) {
+        return merge(buildings, true);
+    }
+
+    /**
+     * merge the triangles of the buildings, the id being the index of each building
+     *
+     * @param buildings buildings
+     * @param prisms    false to leave out the buildings extruded from a base polygon
+     * @return TriangleStore
+     */
+    public static TriangleStore merge(List<Building> buildings, boolean prisms) {
+        int n = 0;
+        for (Building b : buildings)
+            if (prisms || !b.isPrism())
+                n += b.getTriangles().size();
+        TriangleStore store = new TriangleStore(n);
+        for (int id = 0; id < buildings.size(); id++) {
+            if (!prisms && buildings.get(id).isPrism())
+                continue;
+            TriangleStore s = buildings.get(id).getTriangles();
+            for (int i = 0; i < s.size; i++)
+                store.copy(s, i, id);
+        }
+        return store;
+    }
+
+    /**
+     * a copy in the given order
+     *
+     * @param order indices of the triangles
+     * @return TriangleStore
+     */
+    public TriangleStore permute(int[] order) {
+        TriangleStore store = new TriangleStore(order.length);
+        for (int i : order)
+            store.copy(this, i, building[i]);
+        return store;
+    }
+
+    private void add(double x, double y, double z,
+                     double ax, double ay, double az,
+                     double bx, double by, double bz, int id) {
+        int i = size++;
+        v0x[i] = x;
+        v0y[i] = y;
+        v0z[i] = z;
+        e1x[i] = ax;
+        e1y[i] = ay;
+        e1z[i] = az;
+        e2x[i] = bx;
+        e2y[i] = by;
+        e2z[i] = bz;
+        double cx = ay * bz - az * by;
+        double cy = az * bx - ax * bz;
+        double cz = ax * by - ay * bx;
+        double len = Math.sqrt(cx * cx + cy * cy + cz * cz);
+        if (len > 0) {
+            cx /= len;
+            cy /= len;
+            cz /= len;
+        }
+        nx[i] = cx;
+        ny[i] = cy;
+        nz[i] = cz;
+        building[i] = id;
+    }
+
+    private void copy(TriangleStore s, int i, int id) {
+        int j = size++;
+        v0x[j] = s.v0x[i];
+        v0y[j] = s.v0y[i];
+        v0z[j] = s.v0z[i];
+        e1x[j] = s.e1x[i];
+        e1y[j] = s.e1y[i];
+        e1z[j] = s.e1z[i];
+        e2x[j] = s.e2x[i];
+        e2y[j] = s.e2y[i];
+        e2z[j] = s.e2z[i];
+        nx[j] = s.nx[i];
+        ny[j] = s.ny[i];
+        nz[j] = s.nz[i];
+        building[j] = id;
+    }
+
+    /*===========================================================================*/
+
+    public int size() {
+        return size;
+    }
+
+    public int getBuilding(int i) {
+        return building[i];
+    }
+
+    /**
+     * coordinate of a vertex
+     *
+     * @param i    index of the triangle
+     * @param j    index of the vertex in [0, 2]
+     * @param axis 0 - x, 1 - y, 2 - z
+     * @return double
+     */
+    public double getCoord(int i, int j, int axis) {
+        double v, a, b;
+        if (axis == 0) {
+            v = v0x[i];
+            a = e1x[i];
+            b = e2x[i];
+        } else if (axis == 1) {
+            v = v0y[i];
+            a = e1y[i];
+            b = e2y[i];
+        } else {
+            v = v0z[i];
+            a = e1z[i];
+            b = e2z[i];
+        }
+        return j == 0 ? v : j == 1 ? v + a : v + b;
+    }
+
+    public WB_Point getPoint(int i, int j) {
+        return new WB_Point(getCoord(i, j, 0), getCoord(i, j, 1), getCoord(i, j, 2));
+    }
+
+    public WB_Vector getNormal(int i) {
+        return new WB_Vector(nx[i], ny[i], nz[i]);
+    }
+
+    /**
+     * bounds of all vertices
+     *
+     * @return double[]{minX, minY, minZ, maxX, maxY, maxZ}
+     */
+    public double[] getBounds() {
+        double[] box = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < 3; j++) {
+                for (int k = 0; k < 3; k++) {
+                    double c = getCoord(i, j, k);
+                    box[k] = Math.min(box[k], c);
+                    box[k + 3] = Math.max(box[k + 3], c);
+                }
+            }
+        }
+        return box;
+    }
+
+    /**
+     * triangles created on demand, not kept by the store
+     *
+     * @return List<WB_Triangle>
+     */
+    public List<WB_Triangle> toTriangles() {
+        List<WB_Triangle> tris = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            tris.add(PolyHandler.gf.createTriangle(getPoint(i, 0), getPoint(i, 1), getPoint(i, 2)));
+        return tris;
+    }
+
+    /**
+     * ray-triangle intersection
+     *
+     * @param i index of the triangle
+     * @return ray parameter t, -1 if missed
+     */
+    public double intersect(int i, double ox, double oy, double oz,
+                            double dx, double dy, double dz) {
+        return PolyHandler.rayTriIntersectionT(ox, oy, oz, dx, dy, dz,
+                v0x[i], v0y[i], v0z[i],
+                e1x[i], e1y[i], e1z[i],
+                e2x[i], e2y[i], e2z[i]);
+    }
+
+    /**
+     * project every vertex along a direction onto a horizontal plane in one pass,
+     * the edges being projected by the same affine map
+     *
+     * @param dx  direction to the light x
+     * @param dy  direction to the light y
+     * @param dz  direction to the light z, positive
+     * @param z   height of the plane
+     * @param out x, y of vertex 0, 1, 2 of each triangle, null to allocate
+     * @return double[size * 6]
+     */
+    public double[] projectToPlane(double dx, double dy, double dz, double z, double[] out) {
+        if (null == out || out.length < size * 6)
+            out = new double[size * 6];
+        double kx = dx / dz;
+        double ky = dy / dz;
+        for (int i = 0, k = 0; i < size; i++, k += 6) {
+            double h = v0z[i] - z;
+            double x0 = v0x[i] - kx * h;
+            double y0 = v0y[i] - ky * h;
+            out[k] = x0;
+            out[k + 1] = y0;
+            out[k + 2] = x0 + e1x[i] - kx * e1z[i];
+            out[k + 3] = y0 + e1y[i] - ky * e1z[i];
+            out[k + 4] = x0 + e2x[i] - kx * e2z[i];
+            out[k + 5] = y0 + e2y[i] - ky * e2z[i];
+        }
+        return out;
+    }
+
+    /**
+     * memory held by the arrays
+     *
+     * @return long in BYTES
+     */
+    public long getMemory() {
+        return (long) v0x.length * (12 * 8 + 4);
+    }
+}
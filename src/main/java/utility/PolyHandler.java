@@ -1,6 +1,5 @@
 package utility;
 
-import Jama.Matrix;
 import gzf.gui.Vec_Guo;
 import org.locationtech.jts.geom.*;
 import wblut.geom.*;
@@ -259,6 +258,92 @@ public class PolyHandler {
         return tris;
     }
 
+    /**
+     * check if a ring is convex, collinear points allowed
+     *
+     * @param xs x of the points, counter-clockwise
+     * @param ys y of the points
+     * @param ids indices of the points in order
+     * @return boolean
+     */
+    public static boolean isConvex(double[] xs, double[] ys, int[] ids) {
+        int n = ids.length;
+        for (int i = 0; i < n; i++) {
+            int a = ids[(i + n - 1) % n], b = ids[i], c = ids[(i + 1) % n];
+            if (cross(xs, ys, a, b, c) < -1e-9)
+                return false;
+        }
+        return true;
+    }
+
+    private static double cross(double[] xs, double[] ys, int a, int b, int c) {
+        return (xs[b] - xs[a]) * (ys[c] - ys[b]) - (ys[b] - ys[a]) * (xs[c] - xs[b]);
+    }
+
+    /**
+     * convex pieces of a simple polygon by Hertel-Mehlhorn,
+     * the diagonals of its triangulation removed while the merged piece stays convex
+     *
+     * @param poly simple polygon without holes
+     * @param xs   x of the points, counter-clockwise
+     * @param ys   y of the points
+     * @return indices of the points of each piece, counter-clockwise
+     */
+    public static List<int[]> decomposeConvex(WB_Polygon poly, double[] xs, double[] ys) {
+        List<int[]> pieces = new ArrayList<>();
+        int[] triID = poly.getTriangles();
+        for (int i = 0; i < triID.length - 2; i += 3) {
+            int a = triID[i], b = triID[i + 1], c = triID[i + 2];
+            double area = cross(xs, ys, a, b, c);
+            if (area > 0)
+                pieces.add(new int[]{a, b, c});
+            else if (area < 0)
+                pieces.add(new int[]{a, c, b});
+        }
+
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            search:
+            for (int i = 0; i < pieces.size(); i++) {
+                for (int j = i + 1; j < pieces.size(); j++) {
+                    int[] m = mergeAtDiagonal(pieces.get(i), pieces.get(j));
+                    if (null != m && isConvex(xs, ys, m)) {
+                        pieces.set(i, m);
+                        pieces.remove(j);
+                        merged = true;
+                        break search;
+                    }
+                }
+            }
+        }
+        return pieces;
+    }
+
+    /**
+     * two counter-clockwise pieces joined at an edge u-v of a and v-u of b
+     *
+     * @return merged ring, null if no shared edge
+     */
+    private static int[] mergeAtDiagonal(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int u = a[i], v = a[(i + 1) % a.length];
+            for (int j = 0; j < b.length; j++) {
+                if (b[j] != v || b[(j + 1) % b.length] != u)
+                    continue;
+                int[] m = new int[a.length + b.length - 2];
+                int k = 0;
+                // a from v around to u, then b after u up to before v
+                for (int s = 0; s < a.length; s++)
+                    m[k++] = a[(i + 1 + s) % a.length];
+                for (int s = 2; s < b.length; s++)
+                    m[k++] = b[(j + s) % b.length];
+                return m;
+            }
+        }
+        return null;
+    }
+
     public static HE_Mesh reverseObj(String path) {
         HE_Mesh mesh = HET_Import.readFromObjFile(path);
         WB_CoordCollection coords = mesh.getPoints();
@@ -315,28 +400,29 @@ public class PolyHandler {
      * @return WB_Point intersection point
      */
     public static WB_Point rayPlaneIntersection(WB_Ray ray, WB_Triangle plane) {
-        Matrix m = rayIntersectPlane(ray, plane);
-        if (null == m)
+        WB_Point o = ray.getOrigin();
+        WB_Vector d = ray.getDirection();
+        WB_Coord p0 = plane.getPoint(0);
+        WB_Coord p1 = plane.getPoint(1);
+        WB_Coord p2 = plane.getPoint(2);
+        double t = rayPlaneIntersectionT(o.xd(), o.yd(), o.zd(), d.xd(), d.yd(), d.zd(),
+                p0.xd(), p0.yd(), p0.zd(),
+                p1.xd() - p0.xd(), p1.yd() - p0.yd(), p1.zd() - p0.zd(),
+                p2.xd() - p0.xd(), p2.yd() - p0.yd(), p2.zd() - p0.zd());
+        if (t < 0)
             return null;
-        double t = m.get(0, 0);
         return pointInRay(ray, t);
     }
 
     public static double rayTriIntersectionT(WB_Ray ray, WB_Triangle plane) {
-        Matrix m = rayIntersectPlane(ray, plane);
-        if (null == m)
-            return Double.MAX_VALUE;
-        double u = m.get(1, 0);
-        double v = m.get(2, 0);
-        if (u + v <= 1 && u >= 0 && u <= 1 && v >= 0 && v <= 1)
-            return m.get(0, 0);
-        return Double.MAX_VALUE;
+        double t = rayTriIntersection(ray, plane);
+        return t < 0 ? Double.MAX_VALUE : t;
     }
 
     public static WB_Point pointInRay(WB_Ray ray, double t) {
-        WB_Point la = ray.getPoint(0);
-        WB_Point lb = ray.getPoint(1);
-        return la.add(lb.sub(la).mul(t));
+        WB_Point o = ray.getOrigin();
+        WB_Vector d = ray.getDirection();
+        return new WB_Point(o.xd() + d.xd() * t, o.yd() + d.yd() * t, o.zd() + d.zd() * t);
     }
 
     /**
@@ -347,47 +433,115 @@ public class PolyHandler {
      * @return boolean
      */
     public static boolean checkRayTriIntersection(WB_Ray ray, WB_Triangle tri) {
-        Matrix m = rayIntersectPlane(ray, tri);
-        if (null == m)
-            return false;
-        double u = m.get(1, 0);
-        double v = m.get(2, 0);
-        return u + v <= 1 && u >= 0 && u <= 1 && v >= 0 && v <= 1;
+        return rayTriIntersection(ray, tri) >= 0;
+    }
+
+    private static double rayTriIntersection(WB_Ray ray, WB_Triangle tri) {
+        WB_Point o = ray.getOrigin();
+        WB_Vector d = ray.getDirection();
+        WB_Coord p0 = tri.getPoint(0);
+        WB_Coord p1 = tri.getPoint(1);
+        WB_Coord p2 = tri.getPoint(2);
+        return rayTriIntersectionT(o.xd(), o.yd(), o.zd(), d.xd(), d.yd(), d.zd(),
+                p0.xd(), p0.yd(), p0.zd(),
+                p1.xd() - p0.xd(), p1.yd() - p0.yd(), p1.zd() - p0.zd(),
+                p2.xd() - p0.xd(), p2.yd() - p0.yd(), p2.zd() - p0.zd());
     }
 
     /**
-     * ray-plane intersection matrix
+     * pack a triangle into the edge cache used by the primitive kernel
+     * 9 doubles: vertex0, edge1 = v1 - v0, edge2 = v2 - v0
      *
-     * @param ray   ray
-     * @param plane WB_Triangle
-     * @return Matrix [{t}, {u}, {v}]
+     * @param tri    WB_Triangle
+     * @param cache  double[] to write into
+     * @param offset index of the first double
      */
-    private static Matrix rayIntersectPlane(WB_Ray ray, WB_Triangle plane) {
-        WB_Point la = ray.getPoint(0);
-        WB_Point lb = ray.getPoint(1);
+    public static void packTriangle(WB_Triangle tri, double[] cache, int offset) {
+        WB_Coord p0 = tri.getPoint(0);
+        WB_Coord p1 = tri.getPoint(1);
+        WB_Coord p2 = tri.getPoint(2);
+        cache[offset] = p0.xd();
+        cache[offset + 1] = p0.yd();
+        cache[offset + 2] = p0.zd();
+        cache[offset + 3] = p1.xd() - p0.xd();
+        cache[offset + 4] = p1.yd() - p0.yd();
+        cache[offset + 5] = p1.zd() - p0.zd();
+        cache[offset + 6] = p2.xd() - p0.xd();
+        cache[offset + 7] = p2.yd() - p0.yd();
+        cache[offset + 8] = p2.zd() - p0.zd();
+    }
 
-        WB_Coord p0 = plane.getPoint(0);
-        WB_Coord p1 = plane.getPoint(1);
-        WB_Coord p2 = plane.getPoint(2);
-        Matrix m = new Matrix(new double[][]{
-                {la.xd() - lb.xd(), p1.xd() - p0.xd(), p2.xd() - p0.xd()},
-                {la.yd() - lb.yd(), p1.yd() - p0.yd(), p2.yd() - p0.yd()},
-                {la.zd() - lb.zd(), p1.zd() - p0.zd(), p2.zd() - p0.zd()}
-        });
-        if (m.det() == 0)
-            return null;
-        m = m.inverse();
+    /**
+     * ray-triangle intersection against the edge cache
+     *
+     * @param cache  packed triangles, see packTriangle
+     * @param offset index of the first double of the triangle
+     * @return ray parameter t, -1 if missed
+     */
+    public static double rayTriIntersectionT(double ox, double oy, double oz,
+                                             double dx, double dy, double dz,
+                                             double[] cache, int offset) {
+        return rayTriIntersectionT(ox, oy, oz, dx, dy, dz,
+                cache[offset], cache[offset + 1], cache[offset + 2],
+                cache[offset + 3], cache[offset + 4], cache[offset + 5],
+                cache[offset + 6], cache[offset + 7], cache[offset + 8]);
+    }
 
-        Matrix n = new Matrix(new double[][]{
-                {la.xd() - p0.xd()},
-                {la.yd() - p0.yd()},
-                {la.zd() - p0.zd()}
-        });
+    /**
+     * Moller-Trumbore ray-triangle intersection
+     * solves origin + t * dir = v0 + u * edge1 + v * edge2 by Cramer's rule,
+     * the same system as the former 3x3 inverse, boundary inclusive
+     *
+     * @return ray parameter t, -1 if missed
+     */
+    public static double rayTriIntersectionT(double ox, double oy, double oz,
+                                             double dx, double dy, double dz,
+                                             double v0x, double v0y, double v0z,
+                                             double e1x, double e1y, double e1z,
+                                             double e2x, double e2y, double e2z) {
+        double px = dy * e2z - dz * e2y;
+        double py = dz * e2x - dx * e2z;
+        double pz = dx * e2y - dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0)
+            return -1;
+        double inv = 1 / det;
+        double sx = ox - v0x, sy = oy - v0y, sz = oz - v0z;
+        double u = (sx * px + sy * py + sz * pz) * inv;
+        if (u < 0 || u > 1)
+            return -1;
+        double qx = sy * e1z - sz * e1y;
+        double qy = sz * e1x - sx * e1z;
+        double qz = sx * e1y - sy * e1x;
+        double v = (dx * qx + dy * qy + dz * qz) * inv;
+        if (v < 0 || u + v > 1)
+            return -1;
+        double t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+        return t >= 0 ? t : -1;
+    }
 
-        Matrix intersection = m.times(n);
-        if (null != intersection && intersection.get(0, 0) >= 0)
-            return intersection;
-        return null;
+    /**
+     * ray-plane intersection, the plane given by a point and two edges
+     *
+     * @return ray parameter t, -1 if parallel or behind the origin
+     */
+    private static double rayPlaneIntersectionT(double ox, double oy, double oz,
+                                                double dx, double dy, double dz,
+                                                double v0x, double v0y, double v0z,
+                                                double e1x, double e1y, double e1z,
+                                                double e2x, double e2y, double e2z) {
+        double px = dy * e2z - dz * e2y;
+        double py = dz * e2x - dx * e2z;
+        double pz = dx * e2y - dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0)
+            return -1;
+        double sx = ox - v0x, sy = oy - v0y, sz = oz - v0z;
+        double qx = sy * e1z - sz * e1y;
+        double qy = sz * e1x - sx * e1z;
+        double qz = sx * e1y - sy * e1x;
+        double t = (e2x * qx + e2y * qy + e2z * qz) / det;
+        return t >= 0 ? t : -1;
     }
 
     /**
@@ -0,0 +1,109 @@
+package utility;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.TopologyException;
+import org.locationtech.jts.geom.util.PolygonExtracter;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * union of many polygons,
+ * cascaded over the nodes of an STRtree so that nearby pieces are merged first
+ *
+ * @author Wu
+ * @create 2021-04-21 11:08
+ */
+
+public class UnionHandler {
+    /**
+     * node capacity of the STRtree, the pieces merged in one pass
+     */
+    public static final int GROUP_SIZE = 16;
+
+    /**
+     * UnaryUnionNG.union(Geometry, PrecisionModel) of JTS 1.18+, null if absent
+     */
+    private static final Method UNION_NG = findUnionNG();
+
+    private static Method findUnionNG() {
+        try {
+            Class<?> c = Class.forName("org.locationtech.jts.operation.overlayng.UnaryUnionNG");
+            return c.getMethod("union", Geometry.class, PrecisionModel.class);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if OverlayNG is used
+     */
+    public static boolean isOverlayNG() {
+        return null != UNION_NG;
+    }
+
+    /**
+     * union of the polygonal geometries, empty and zero-area pieces ignored
+     *
+     * @param geos polygonal geometries, not null
+     * @return Geometry
+     */
+    public static Geometry union(Geometry... geos) {
+        List<Polygon> polys = new ArrayList<>(geos.length);
+        for (Geometry g : geos)
+            for (Object p : PolygonExtracter.getPolygons(g))
+                if (((Polygon) p).getArea() > 0)
+                    polys.add((Polygon) p);
+        if (polys.isEmpty())
+            return PolyHandler.JTSgf.createPolygon();
+        if (polys.size() == 1)
+            return polys.get(0);
+
+        try {
+            if (null != UNION_NG) {
+                GeometryCollection gc = PolyHandler.JTSgf.createGeometryCollection(
+                        polys.toArray(new Geometry[0]));
+                return (Geometry) UNION_NG.invoke(null, gc, PolyHandler.JTSgf.getPrecisionModel());
+            }
+            if (polys.size() <= GROUP_SIZE)
+                return bufferUnion(polys.toArray(new Geometry[0]));
+            STRtree tree = new STRtree(GROUP_SIZE);
+            for (Polygon p : polys)
+                tree.insert(p.getEnvelopeInternal(), p);
+            return unionTree(tree.itemsTree());
+        } catch (TopologyException | ReflectiveOperationException e) {
+            // robust but slow fallback
+            return bufferUnion(polys.toArray(new Geometry[0]));
+        }
+    }
+
+    /**
+     * union of each node bottom-up, a single buffer(0) for at most GROUP_SIZE children
+     *
+     * @param items polygons or child nodes of an STRtree node
+     * @return Geometry
+     */
+    private static Geometry unionTree(List<?> items) {
+        Geometry[] geos = new Geometry[items.size()];
+        for (int i = 0; i < geos.length; i++) {
+            Object item = items.get(i);
+            geos[i] = item instanceof List ? unionTree((List<?>) item) : (Geometry) item;
+        }
+        return bufferUnion(geos);
+    }
+
+    /**
+     * union by buffer(0) of a GeometryCollection
+     *
+     * @param geos geometries
+     * @return Geometry
+     */
+    public static Geometry bufferUnion(Geometry... geos) {
+        return PolyHandler.JTSgf.createGeometryCollection(geos).buffer(0);
+    }
+}
@@ -0,0 +1,141 @@
+import Jama.Matrix;
+import core.Building;
+import utility.IOHandler;
+import utility.PolyHandler;
+import wblut.geom.WB_Coord;
+import wblut.geom.WB_Point;
+import wblut.geom.WB_Ray;
+import wblut.geom.WB_Triangle;
+import wblut.hemesh.HE_Mesh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * micro-benchmark of ray-triangle intersection
+ * the former Jama matrix inverse against the Moller-Trumbore kernel
+ *
+ * @author Wu
+ * @create 2021-04-14 15:02
+ */
+
+public class RayTriBenchmark {
+    private static final int RAY_NUM = 20000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        String objPath = "src/test/resources/buildings.obj";
+        List<HE_Mesh> meshes = IOHandler.readFromOBJFile(objPath);
+        List<WB_Triangle> tris = new ArrayList<>();
+        for (HE_Mesh m : meshes)
+            tris.addAll(new Building(IOHandler.switchObjYZ(m)).getTris());
+
+        double[] cache = new double[tris.size() * 9];
+        for (int i = 0; i < tris.size(); i++)
+            PolyHandler.packTriangle(tris.get(i), cache, i * 9);
+
+        // random rays from the ground toward the sky
+        Random random = new Random(0);
+        WB_Ray[] rays = new WB_Ray[RAY_NUM];
+        double[] rayData = new double[RAY_NUM * 6];
+        for (int i = 0; i < RAY_NUM; i++) {
+            WB_Point o = new WB_Point(random.nextDouble() * 1000 - 500,
+                    random.nextDouble() * 1000 - 500, random.nextDouble() * 30);
+            WB_Point d = new WB_Point(random.nextGaussian(),
+                    random.nextGaussian(), Math.abs(random.nextGaussian()));
+            rays[i] = PolyHandler.gf.createRayThroughPoints(o, o.add(d));
+            WB_Point origin = rays[i].getOrigin();
+            WB_Coord dir = rays[i].getDirection();
+            rayData[i * 6] = origin.xd();
+            rayData[i * 6 + 1] = origin.yd();
+            rayData[i * 6 + 2] = origin.zd();
+            rayData[i * 6 + 3] = dir.xd();
+            rayData[i * 6 + 4] = dir.yd();
+            rayData[i * 6 + 5] = dir.zd();
+        }
+
+        // identical hit/miss results
+        int mismatch = 0;
+        int hits = 0;
+        for (WB_Ray ray : rays) {
+            for (int j = 0; j < tris.size(); j++) {
+                boolean legacy = legacyCheck(ray, tris.get(j));
+                if (legacy != PolyHandler.checkRayTriIntersection(ray, tris.get(j)))
+                    mismatch++;
+                if (legacy)
+                    hits++;
+            }
+        }
+        System.out.printf("%d triangles, %d rays, %d hits, %d mismatches%n",
+                tris.size(), RAY_NUM, hits, mismatch);
+
+        for (int r = 0; r < ROUNDS; r++) {
+            long startTime = System.nanoTime();
+            int legacyHits = 0;
+            for (WB_Ray ray : rays)
+                for (WB_Triangle tri : tris)
+                    if (legacyCheck(ray, tri))
+                        legacyHits++;
+            long legacyTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            int triHits = 0;
+            for (WB_Ray ray : rays)
+                for (WB_Triangle tri : tris)
+                    if (PolyHandler.checkRayTriIntersection(ray, tri))
+                        triHits++;
+            long triTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            int cacheHits = 0;
+            for (int i = 0; i < RAY_NUM; i++) {
+                int k = i * 6;
+                for (int j = 0; j < cache.length; j += 9)
+                    if (PolyHandler.rayTriIntersectionT(rayData[k], rayData[k + 1], rayData[k + 2],
+                            rayData[k + 3], rayData[k + 4], rayData[k + 5], cache, j) >= 0)
+                        cacheHits++;
+            }
+            long cacheTime = System.nanoTime() - startTime;
+
+            long tests = (long) RAY_NUM * tris.size();
+            System.out.printf("round %d: Jama %.1fns/test, WB_Triangle %.1fns/test, edge cache %.1fns/test" +
+                            " (hits %d/%d/%d)%n", r,
+                    (double) legacyTime / tests, (double) triTime / tests, (double) cacheTime / tests,
+                    legacyHits, triHits, cacheHits);
+        }
+    }
+
+    /**
+     * the former ray-triangle test through a 3x3 matrix inverse
+     */
+    private static boolean legacyCheck(WB_Ray ray, WB_Triangle tri) {
+        WB_Point la = ray.getPoint(0);
+        WB_Point lb = ray.getPoint(1);
+
+        WB_Coord p0 = tri.getPoint(0);
+        WB_Coord p1 = tri.getPoint(1);
+        WB_Coord p2 = tri.getPoint(2);
+        Matrix m = new Matrix(new double[][]{
+                {la.xd() - lb.xd(), p1.xd() - p0.xd(), p2.xd() - p0.xd()},
+                {la.yd() - lb.yd(), p1.yd() - p0.yd(), p2.yd() - p0.yd()},
+                {la.zd() - lb.zd(), p1.zd() - p0.zd(), p2.zd() - p0.zd()}
+        });
+        if (m.det() == 0)
+            return false;
+        m = m.inverse();
+
+        Matrix n = new Matrix(new double[][]{
+                {la.xd() - p0.xd()},
+                {la.yd() - p0.yd()},
+                {la.zd() - p0.zd()}
+        });
+
+        Matrix intersection = m.times(n);
+        if (intersection.get(0, 0) < 0)
+            return false;
+        double u = intersection.get(1, 0);
+        double v = intersection.get(2, 0);
+        return u + v <= 1 && u >= 0 && u <= 1 && v >= 0 && v <= 1;
+    }
+}
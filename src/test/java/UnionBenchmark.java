@@ -0,0 +1,147 @@
+import core.Building;
+import core.Sun;
+import core.SunPath;
+import org.locationtech.jts.geom.Geometry;
+import utility.IOHandler;
+import utility.PolyHandler;
+import utility.UnionHandler;
+import wblut.geom.WB_Coord;
+import wblut.geom.WB_Point;
+import wblut.geom.WB_Triangle;
+import wblut.hemesh.HE_Mesh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * micro-benchmark of shadow union
+ * buffer(0) of a GeometryCollection against the cascaded union
+ *
+ * @author Wu
+ * @create 2021-04-21 15:30
+ */
+
+public class UnionBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int SYNTHETIC_SIZE = 20;
+
+    public static void main(String[] args) {
+        System.out.println("OverlayNG: " + UnionHandler.isOverlayNG());
+        SunPath sunPath = new Sun().getSunPath();
+
+        // facet shadows of the triangles in buildings.obj
+        List<List<Geometry[]>> steps = new ArrayList<>();
+        List<HE_Mesh> meshes = IOHandler.readFromOBJFile("src/test/resources/buildings.obj");
+        List<Building> buildings = new ArrayList<>();
+        for (HE_Mesh m : meshes)
+            buildings.add(new Building(IOHandler.switchObjYZ(m)));
+        for (int i = 1; i < sunPath.getPathDiv() - 1; i++) {
+            WB_Point sun = sunPath.getPoint(i);
+            List<Geometry[]> step = new ArrayList<>();
+            for (Building b : buildings) {
+                List<WB_Triangle> tris = b.getTris();
+                Geometry[] geos = new Geometry[tris.size()];
+                for (int j = 0; j < geos.length; j++)
+                    geos[j] = projectTriangle(tris.get(j), sun);
+                step.add(geos);
+            }
+            steps.add(step);
+        }
+        run("buildings.obj", steps);
+
+        // edge shadows of SYNTHETIC_SIZE x SYNTHETIC_SIZE L-shaped blocks
+        steps = new ArrayList<>();
+        for (int i = 1; i < sunPath.getPathDiv() - 1; i++) {
+            WB_Point sun = sunPath.getPoint(i);
+            List<Geometry[]> step = new ArrayList<>();
+            for (int x = 0; x < SYNTHETIC_SIZE; x++) {
+                for (int y = 0; y < SYNTHETIC_SIZE; y++) {
+                    double x0 = -450 + x * 45;
+                    double y0 = -450 + y * 45;
+                    WB_Point[] base = new WB_Point[]{
+                            new WB_Point(x0, y0),
+                            new WB_Point(x0 + 30, y0),
+                            new WB_Point(x0 + 30, y0 + 12),
+                            new WB_Point(x0 + 12, y0 + 12),
+                            new WB_Point(x0 + 12, y0 + 30),
+                            new WB_Point(x0, y0 + 30)
+                    };
+                    step.add(projectPrism(base, 10 + (x * 7 + y * 13) % 60, sun));
+                }
+            }
+            steps.add(step);
+        }
+        run("synthetic", steps);
+    }
+
+    /**
+     * union the pieces of each building, then the buildings of each step
+     *
+     * @param name  scene name
+     * @param steps pieces of each building at each step
+     */
+    private static void run(String name, List<List<Geometry[]>> steps) {
+        int pieces = 0;
+        for (List<Geometry[]> step : steps)
+            for (Geometry[] geos : step)
+                pieces += geos.length;
+        System.out.printf("%s: %d buildings, %d steps, %d pieces%n",
+                name, steps.get(0).size(), steps.size(), pieces);
+
+        for (int r = 0; r < ROUNDS; r++) {
+            long startTime = System.nanoTime();
+            double bufferArea = 0;
+            for (List<Geometry[]> step : steps) {
+                Geometry[] shadows = new Geometry[step.size()];
+                for (int j = 0; j < shadows.length; j++)
+                    shadows[j] = UnionHandler.bufferUnion(step.get(j));
+                bufferArea += UnionHandler.bufferUnion(shadows).getArea();
+            }
+            long bufferTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            double cascadedArea = 0;
+            for (List<Geometry[]> step : steps) {
+                Geometry[] shadows = new Geometry[step.size()];
+                for (int j = 0; j < shadows.length; j++)
+                    shadows[j] = UnionHandler.union(step.get(j));
+                cascadedArea += UnionHandler.union(shadows).getArea();
+            }
+            long cascadedTime = System.nanoTime() - startTime;
+
+            System.out.printf("round %d: buffer(0) %.1fms, cascaded %.1fms, speedup %.1fx" +
+                            " (area %.1f/%.1f)%n", r,
+                    bufferTime / 1e6, cascadedTime / 1e6, (double) bufferTime / cascadedTime,
+                    bufferArea, cascadedArea);
+        }
+    }
+
+    private static WB_Point project(WB_Coord p, WB_Point sun) {
+        double t = p.zd() / sun.zd();
+        return new WB_Point(p.xd() - sun.xd() * t, p.yd() - sun.yd() * t);
+    }
+
+    /**
+     * shadow of a triangle on the ground
+     */
+    private static Geometry projectTriangle(WB_Triangle tri, WB_Point sun) {
+        return PolyHandler.createPolygon(project(tri.getPoint(0), sun),
+                project(tri.getPoint(1), sun), project(tri.getPoint(2), sun));
+    }
+
+    /**
+     * shadow quads of the edges of an extruded base, and the base itself
+     */
+    private static Geometry[] projectPrism(WB_Point[] base, double height, WB_Point sun) {
+        Geometry[] geos = new Geometry[base.length + 1];
+        for (int i = 0; i < base.length; i++) {
+            WB_Point p0 = base[i];
+            WB_Point p1 = base[(i + 1) % base.length];
+            geos[i] = PolyHandler.createPolygon(p0, p1,
+                    project(new WB_Point(p1.xd(), p1.yd(), height), sun),
+                    project(new WB_Point(p0.xd(), p0.yd(), height), sun));
+        }
+        geos[base.length] = PolyHandler.createPolygon(base);
+        return geos;
+    }
+}